@@ -0,0 +1,203 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rates positions in bulk without a display, for example every position from a file of game logs.
+ * Run it with "java Connect4Analyzer [file] [bot] [threads] [cache]". Each line of the file (or of the standard input if
+ * the file is "-" or left out) is a position given as the columns played in order from an empty board, from
+ * 1 - BOARD_WIDTH, with RED moving first, for example 4453. Blank lines are skipped. The bot is given like in
+ * Connect4Tournament as its thinking time in ms, optionally followed by /depth for the most moves deep it
+ * searches. By default it searches every position 8 moves deep, one position per processor.
+ * For each line it prints the position, the best move for the player to move, how deep it searched and the
+ * rating of each column from the point of view of the player to move, separated by tabs. Full columns are
+ * rated "-", and columns that win or lose the game by force are rated W or L followed by how many balls the
+ * winner needs to play, so W1 wins straight away and L2 loses to the other player's second ball. Every column is
+ * searched with a full window (see Connect4Bot.setExactRatings), so each rating is exact, not just the best one.
+ * If time runs out before the bot finishes a search, there are no ratings and every column is rated "?".
+ * The results come out in the same order as the positions, and only a few positions per thread are held at a
+ * time, so any number of positions can be rated. The number of positions rated per second is printed to the
+ * standard error at the end.
+ * The bot has to search with ALPHA_BETA, as MTDF only rates the best move.
+ * If a cache file is given, what is worked out is kept in it (see Connect4PersistentTable), so positions
+ * rated again by a later run, or by another run at the same time, are found much faster.
+ */
+public class Connect4Analyzer {
+
+    private static final String DEFAULT_BOT = "3600000/8";
+    private static final String STANDARD_INPUT = "-";
+    //Printed for every open column when the bot ran out of time before finishing a search
+    private static final String NO_RATING = "?";
+
+    private static final int TABLE_SIZE_MB = 16;
+    //How many positions per thread can be waiting to be printed before reading stops to let them catch up
+    private static final int POSITIONS_PER_THREAD = 4;
+    private static final int CACHE_SIZE_MB = 256;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        String file = args.length > 0 ? args[0] : STANDARD_INPUT;
+        String botDescription = args.length > 1 ? args[1] : DEFAULT_BOT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        if (getDriver(botDescription) != Connect4Bot.Driver.ALPHA_BETA) {
+            System.err.println("The analyzer needs a rating for every column, which only the alpha_beta driver gives");
+            return;
+        }
+        Connect4PersistentTable cache = args.length > 3
+                ? new Connect4PersistentTable(args[3], Connect4Rules.STANDARD, CACHE_SIZE_MB) : null;
+
+        ThreadLocal<Connect4Bot> bots = ThreadLocal.withInitial(() -> createBot(botDescription, cache));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Queue<Future<String>> results = new ArrayDeque<>();
+        long count = 0;
+        long start = System.nanoTime();
+
+        try (BufferedReader in = new BufferedReader(file.equals(STANDARD_INPUT)
+                ? new InputStreamReader(System.in) : new FileReader(file));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String moves = line.trim();
+                if (moves.isEmpty()) {
+                    continue;
+                }
+                if (results.size() >= threads * POSITIONS_PER_THREAD) {
+                    out.println(take(results));
+                }
+                results.add(pool.submit(() -> analyze(bots.get(), moves)));
+                count++;
+            }
+            while (!results.isEmpty()) {
+                out.println(take(results));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (cache != null) {
+            cache.flush();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("%d positions in %.1f s, %.1f positions/s", count, seconds, count / seconds));
+    }
+
+    /**
+     * Creates a bot from its description
+     * @param description thinking time in ms, optionally followed by /depth and /driver
+     * @param cache table shared by every bot to keep results in between runs, or null
+     * @return the bot
+     */
+    private static Connect4Bot createBot(String description, Connect4PersistentTable cache) {
+        Connect4Bot bot = new Connect4Bot(TABLE_SIZE_MB);
+        bot.setPersistentTable(cache);
+        //Each thread gets its own bot with one thread, so positions use the processors instead
+        bot.setThreadCount(1);
+        //The solver and forced moves only give the best move, not a rating for every column, and without exact
+        //ratings every column but the best would only get an upper bound
+        bot.setSolverThreshold(0);
+        bot.setForcedMoves(false);
+        bot.setExactRatings(true);
+        String parts[] = description.split("/");
+        bot.setThinkingTime(Long.parseLong(parts[0]));
+        if (parts.length > 1) {
+            bot.setMaxDepth(Integer.parseInt(parts[1]));
+        }
+        bot.setDriver(getDriver(description));
+        return bot;
+    }
+
+    /**
+     * @param description thinking time in ms, optionally followed by /depth and /driver
+     * @return the driver the bot searches with, ALPHA_BETA unless the description picks another
+     */
+    private static Connect4Bot.Driver getDriver(String description) {
+        String parts[] = description.split("/");
+        return parts.length > 2 ? Connect4Bot.Driver.valueOf(parts[2].toUpperCase()) : Connect4Bot.Driver.ALPHA_BETA;
+    }
+
+    /**
+     * Waits for the oldest position to be rated
+     * @param results positions being rated, oldest first
+     * @return the line to print for it
+     */
+    private static String take(Queue<Future<String>> results) throws InterruptedException {
+        try {
+            return results.remove().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rating a position failed", e.getCause());
+        }
+    }
+
+    /**
+     * Rates a position
+     * @param bot bot to rate it with
+     * @param moves columns played in order, from 1 - BOARD_WIDTH
+     * @return the line to print for it
+     */
+    private static String analyze(Connect4Bot bot, String moves) {
+        Connect4Model model = new Connect4Model();
+        for (int i = 0; i < moves.length(); i++) {
+            int col = moves.charAt(i) - '1';
+            if (col < 0 || col >= Connect4Model.BOARD_WIDTH) {
+                return moves + "\terror: " + moves.charAt(i) + " is not a column";
+            }
+            if (!model.canPlay(col)) {
+                return moves + "\terror: column " + (col + 1) + " is full";
+            }
+            if (model.checkForWinner()) {
+                return moves + "\terror: the game was already over";
+            }
+            model.play(col);
+        }
+        if (model.checkForWinner() || model.isBoardFull()) {
+            return moves + "\tgame over";
+        }
+
+        bot.setColor(model.getPlayerTurn() == Connect4Model.PLAYER_1 ? Connect4Model.Color.RED : Connect4Model.Color.YELLOW);
+        int best = bot.getNextMove(model.getBoard());
+        int ratings[] = new int[Connect4Model.BOARD_WIDTH];
+        boolean rated = bot.getLastRatings(ratings);
+
+        StringBuilder line = new StringBuilder();
+        line.append(moves).append('\t').append(best + 1).append('\t').append(bot.getLastSearchStats().depth);
+        for (int col = 0; col < Connect4Model.BOARD_WIDTH; col++) {
+            line.append('\t');
+            if (!model.canPlay(col)) {
+                line.append('-');
+            }
+            else if (rated) {
+                line.append(format(ratings[col]));
+            }
+            else {
+                line.append(NO_RATING);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param rating rating of a column as given by the bot
+     * @return the rating as a number, or W or L and the number of balls the winner plays if it wins or loses
+     */
+    private static String format(int rating) {
+        //The winning ball is the n'th one played, counting the player's move, so odd for the player and even for the other
+        if (rating >= Connect4Bot.RATING_WIN_THRESHOLD) {
+            return "W" + (Connect4Bot.RATING_WIN - rating + 1) / 2;
+        }
+        if (rating <= -Connect4Bot.RATING_WIN_THRESHOLD) {
+            return "L" + (Connect4Bot.RATING_WIN + rating) / 2;
+        }
+        return Integer.toString(rating);
+    }
+}
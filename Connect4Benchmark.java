@@ -0,0 +1,199 @@
+/**
+ * Measures the speed of the engine's hot paths, so every change to the bot can be compared against the last.
+ * Run it with "java Connect4Benchmark [depth]", where depth is how many moves deep the search benchmarks go (9 by default).
+ * Every benchmark runs over a set of opening, middlegame and endgame positions. The searches are run with each of
+ * the bot's drivers in turn, so they can be compared on the same positions. It is first run for WARMUP_ITERATIONS
+ * untimed rounds so the JIT has compiled it, then for MEASURED_ITERATIONS rounds of ITERATION_TIME ms each,
+ * and the mean and standard deviation of the rounds are printed.
+ */
+public class Connect4Benchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_TIME = 1000;
+
+    private static final int DEFAULT_DEPTH = 9;
+    //The table is cleared before every search so each one does the same work, a small one clears quickly
+    private static final int TABLE_SIZE_MB = 4;
+
+    //Positions as the columns played in order, from 1 - BOARD_WIDTH. Nobody has won yet in any of them.
+    private static final String POSITIONS[] = {
+            //Openings
+            "",
+            "4",
+            "44",
+            "4453",
+            //Middlegames
+            "26735654",
+            "645376545557",
+            "4136113757522412",
+            "62136742116122461123",
+            //Endgames
+            "63143176663252411375176461",
+            "2356722133647753316613112224",
+            "576754736567514645236651332177",
+    };
+
+    /**
+     * A piece of work to time
+     */
+    private interface Operation {
+        /**
+         * @return how many units of work were done, such as positions rated or searched
+         */
+        long run();
+    }
+
+    //Results are added up here so the JIT can't throw away the work that made them
+    private static long sSink;
+
+    public static void main(String[] args) {
+
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+
+        Connect4Model.Color boards[][][] = new Connect4Model.Color[POSITIONS.length][][];
+        Connect4Position positions[] = new Connect4Position[POSITIONS.length];
+        Connect4Model models[] = new Connect4Model[POSITIONS.length];
+        for (int i = 0; i < POSITIONS.length; i++) {
+            models[i] = toModel(POSITIONS[i]);
+            boards[i] = models[i].getBoard();
+            positions[i] = new Connect4Position(boards[i]);
+        }
+
+        Connect4Bot bot = new Connect4Bot(TABLE_SIZE_MB);
+        bot.setThreadCount(1);
+        bot.setSolverThreshold(0);
+        bot.setMaxDepth(depth);
+        bot.setThinkingTime(Long.MAX_VALUE / 1000000);
+
+        run("rateBoard, whole board", "ratings/s", false, () -> {
+            for (Connect4Model.Color board[][] : boards) {
+                sSink += bot.rateBoard(board);
+            }
+            return boards.length;
+        });
+
+        run("Incremental rating, play and undo", "ratings/s", false, () -> {
+            long count = 0;
+            for (Connect4Position position : positions) {
+                for (int col = 0; col < Connect4Model.BOARD_WIDTH; col++) {
+                    if (position.play(col, Connect4Model.Color.YELLOW) == -1) {
+                        continue;
+                    }
+                    sSink += position.getScore(Connect4Model.Color.YELLOW);
+                    position.undo(col);
+                    count++;
+                }
+            }
+            return count;
+        });
+
+        for (Connect4Bot.Driver driver : Connect4Bot.Driver.values()) {
+            bot.setDriver(driver);
+            //The default driver keeps the names it always had, so results can be compared with older runs
+            String suffix = driver == Connect4Bot.Driver.ALPHA_BETA ? "" : " (" + driver + ")";
+
+            run("Search to depth " + depth + suffix, "nodes/s", false, () -> {
+                long nodes = 0;
+                for (Connect4Model.Color board[][] : boards) {
+                    bot.clearTable();
+                    sSink += bot.getNextMove(board);
+                    nodes += bot.getNodes();
+                    if (bot.isOutOfTime()) {
+                        throw new IllegalStateException("A search ran out of time before reaching depth " + depth);
+                    }
+                }
+                return nodes;
+            });
+
+            //The nodes searched don't change from run to run, so they only need counting once
+            long nodes = 0;
+            for (Connect4Model.Color board[][] : boards) {
+                bot.clearTable();
+                sSink += bot.getNextMove(board);
+                nodes += bot.getNodes();
+            }
+            System.out.println(String.format("%-40s %14.3f %-16s %s", "Nodes per move at depth " + depth + suffix,
+                    (double) nodes / boards.length, "", "nodes/move"));
+
+            run("Time to move at depth " + depth + suffix, "ms/move", true, () -> {
+                for (Connect4Model.Color board[][] : boards) {
+                    bot.clearTable();
+                    sSink += bot.getNextMove(board);
+                }
+                return boards.length;
+            });
+        }
+        bot.setDriver(Connect4Bot.Driver.ALPHA_BETA);
+
+        run("checkForWinner", "checks/s", false, () -> {
+            for (Connect4Model model : models) {
+                sSink += model.checkForWinner() ? 1 : 0;
+            }
+            return models.length;
+        });
+
+        System.out.println("(" + sSink + ")");
+    }
+
+    /**
+     * Times an operation and prints the result
+     * @param name name of the benchmark
+     * @param unit unit to print the result in
+     * @param perOperation true to print ms per unit of work, false for units of work per second
+     * @param operation work to time
+     */
+    private static void run(String name, String unit, boolean perOperation, Operation operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+
+        double results[] = new double[MEASURED_ITERATIONS];
+        double mean = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            double perSecond = iteration(operation);
+            results[i] = perOperation ? 1000 / perSecond : perSecond;
+            mean += results[i] / MEASURED_ITERATIONS;
+        }
+        double variance = 0;
+        for (double result : results) {
+            variance += (result - mean) * (result - mean) / MEASURED_ITERATIONS;
+        }
+
+        System.out.println(String.format("%-40s %14.3f +- %-12.3f %s", name, mean, Math.sqrt(variance), unit));
+    }
+
+    /**
+     * Runs an operation over and over for ITERATION_TIME ms
+     * @param operation work to time
+     * @return units of work done per second
+     */
+    private static double iteration(Operation operation) {
+        long start = System.nanoTime();
+        long end = start + ITERATION_TIME * 1000000;
+        long units = 0;
+        long now;
+        do {
+            units += operation.run();
+            now = System.nanoTime();
+        } while (now < end);
+        return units * 1e9 / (now - start);
+    }
+
+    /**
+     * Plays out a position so that it is YELLOW's turn, as the bot plays YELLOW
+     * @param moves columns played in order, from 1 - BOARD_WIDTH
+     * @return the model with the moves played
+     */
+    private static Connect4Model toModel(String moves) {
+        Connect4Model model = new Connect4Model();
+        for (int i = 0; i < moves.length(); i++) {
+            //The last ball played is RED's
+            Connect4Model.Color color = (moves.length() - i) % 2 == 1 ? Connect4Model.Color.RED : Connect4Model.Color.YELLOW;
+            if (model.addBall(moves.charAt(i) - '1', color) == -1) {
+                throw new IllegalArgumentException("Column full in " + moves);
+            }
+        }
+        return model;
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An opening book, a file of the best moves for the early positions of the game, worked out ahead of time by
+ * Connect4BookGenerator. The bot looks positions up here before searching, which gives it instant moves for
+ * the opening where the search would be the slowest.
+ * The file starts with a header (FILE_MAGIC, board width, board height, how many in a row win, number of moves
+ * covered, a spare int and number of entries), followed by one long per position holding the position's
+ * canonical key (shared with its mirror image) shifted up by MOVE_BITS and the best column, as it is played on
+ * the lower keyed of the two, in the low bits. Entries are sorted, so a position is found with
+ * a binary search on the memory mapped file without reading it all in.
+ * The key has to fit above the move, so books can only be made for boards where isSupported is true.
+ */
+public class Connect4Book {
+
+    public static final int FILE_MAGIC = 0x43344233; //"C4B3"
+    public static final int HEADER_BYTES = 32;
+    public static final int MOVE_BITS = 4;
+
+    private static final long MOVE_MASK = (1L << MOVE_BITS) - 1;
+
+    private LongBuffer mEntries;
+    private Connect4Rules mRules;
+    private int mPly;
+
+    /**
+     * Opens a book written by Connect4BookGenerator
+     * @param path path of the book file
+     * @throws IOException if the file can't be read or isn't a book
+     */
+    public Connect4Book(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != FILE_MAGIC) {
+                throw new IOException(path + " is not an opening book");
+            }
+            try {
+                mRules = Connect4Rules.get(buffer.getInt(4), buffer.getInt(8), buffer.getInt(12));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " is for a board that can't be played", e);
+            }
+            mPly = buffer.getInt(16);
+            long count = buffer.getLong(24);
+            if (HEADER_BYTES + count * 8 > buffer.capacity()) {
+                throw new IOException(path + " is cut short");
+            }
+            buffer.position(HEADER_BYTES);
+            mEntries = buffer.slice().asLongBuffer();
+            mEntries.limit((int) count);
+        }
+    }
+
+    /**
+     * Looks up the best move for a position
+     * @param position position where it is the bot's turn
+     * @return the column of the best move, or -1 if the position isn't in the book or is on a different board
+     */
+    public int getMove(Connect4Position position) {
+        if (position.getRules() != mRules) {
+            return -1;
+        }
+        long key = position.getCanonicalKey();
+        int low = 0;
+        int high = mEntries.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long entry = mEntries.get(mid);
+            long entryKey = entry >>> MOVE_BITS;
+            if (entryKey < key) {
+                low = mid + 1;
+            }
+            else if (entryKey > key) {
+                high = mid - 1;
+            }
+            else {
+                int move = (int) (entry & MOVE_MASK);
+                return position.isMirrored() ? position.mirror(move) : move;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a book can be made for a board, which it can if the key of every position fits above the move
+     * @param rules size of the board and how many in a row win
+     * @return true if it fits
+     */
+    public static boolean isSupported(Connect4Rules rules) {
+        return rules.isBitboard() && rules.getWidth() * (rules.getHeight() + 1) + MOVE_BITS < 64;
+    }
+
+    /**
+     * @return the board the book is for
+     */
+    public Connect4Rules getRules() {
+        return mRules;
+    }
+
+    /**
+     * @return how many balls deep into the game the book goes
+     */
+    public int getPly() {
+        return mPly;
+    }
+
+    public int getSize() {
+        return mEntries.limit();
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the opening book read by Connect4Book. Every position that can come up in the first few moves with
+ * the bot to move is searched with a long thinking time, and the best moves are written sorted by key.
+ * A position and its mirror image share one entry, so only half as many have to be searched.
+ * Run it with "java Connect4BookGenerator [moves] [thinking time in ms] [file] [width height in a row]", which by
+ * default covers the first 4 moves of the standard board with 1000 ms per position and writes connect4.book.
+ * This takes a while, but only has to be done once.
+ */
+public class Connect4BookGenerator {
+
+    private static final int DEFAULT_PLY = 4;
+    private static final int DEFAULT_THINKING_TIME = 1000;
+    private static final String DEFAULT_FILE = "connect4.book";
+    private static final int TABLE_SIZE_MB = 64;
+
+    //The bot always plays YELLOW, so the book only holds positions where it is YELLOW's turn
+    private static final Connect4Model.Color BOT = Connect4Model.Color.YELLOW;
+
+    public static void main(String[] args) throws IOException {
+
+        int ply = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PLY;
+        int thinkingTime = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THINKING_TIME;
+        String file = args.length > 2 ? args[2] : DEFAULT_FILE;
+        Connect4Rules rules = args.length > 5
+                ? Connect4Rules.get(Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]))
+                : Connect4Rules.STANDARD;
+        if (!Connect4Book.isSupported(rules)) {
+            System.out.println("Books can't be made for a " + rules + " board, it is too big");
+            return;
+        }
+
+        //Positions with the bot to move, from games where either player went first
+        Map<Long, Connect4Model.Color[][]> positions = new LinkedHashMap<>();
+        collect(new Connect4Position(rules), Connect4Model.Color.RED, ply, positions);
+        collect(new Connect4Position(rules), Connect4Model.Color.YELLOW, ply, positions);
+        System.out.println("Searching " + positions.size() + " positions up to " + ply + " moves in");
+
+        Connect4Bot bot = new Connect4Bot(rules, TABLE_SIZE_MB);
+        bot.setThinkingTime(thinkingTime);
+
+        long entries[] = new long[positions.size()];
+        int count = 0;
+        Connect4Position searched = new Connect4Position(rules);
+        for (Map.Entry<Long, Connect4Model.Color[][]> position : positions.entrySet()) {
+            int move = bot.getNextMove(position.getValue());
+            //The key is shared with the mirror image, so the move is stored as it is played on the lower keyed one
+            searched.set(position.getValue());
+            if (searched.isMirrored()) {
+                move = searched.mirror(move);
+            }
+            entries[count++] = (position.getKey() << Connect4Book.MOVE_BITS) | move;
+            if (count % 100 == 0) {
+                System.out.println(count + " / " + entries.length);
+            }
+        }
+        Arrays.sort(entries);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(Connect4Book.FILE_MAGIC);
+            out.writeInt(rules.getWidth());
+            out.writeInt(rules.getHeight());
+            out.writeInt(rules.getMovesToWin());
+            out.writeInt(ply);
+            out.writeInt(0);
+            out.writeLong(entries.length);
+            for (long entry : entries) {
+                out.writeLong(entry);
+            }
+        }
+        System.out.println("Wrote " + entries.length + " positions to " + file);
+    }
+
+    /**
+     * Adds every position with the bot to move that can be reached from position in at most ply moves
+     * @param position position to start from, it is left unchanged
+     * @param toMove color whose turn it is
+     * @param ply how many more moves to look at
+     * @param positions map of position key to board to add to
+     */
+    private static void collect(Connect4Position position, Connect4Model.Color toMove, int ply,
+                                Map<Long, Connect4Model.Color[][]> positions) {
+
+        if (position.hasFour(Connect4Model.Color.RED) || position.hasFour(Connect4Model.Color.YELLOW)
+                || position.countSpacesLeft() == 0) {
+            return; //Game is over
+        }
+        if (toMove == BOT && !positions.containsKey(position.getCanonicalKey())) {
+            positions.put(position.getCanonicalKey(), toBoard(position));
+        }
+        if (ply == 0) {
+            return;
+        }
+
+        Connect4Model.Color other = toMove == Connect4Model.Color.RED ? Connect4Model.Color.YELLOW : Connect4Model.Color.RED;
+        for (int i = 0; i < position.getRules().getWidth(); i++) {
+            if (position.play(i, toMove) == -1) {
+                continue;
+            }
+            collect(position, other, ply - 1, positions);
+            position.undo(i);
+        }
+    }
+
+    private static Connect4Model.Color[][] toBoard(Connect4Position position) {
+        Connect4Rules rules = position.getRules();
+        Connect4Model.Color board[][] = new Connect4Model.Color[rules.getWidth()][rules.getHeight()];
+        for (int i = 0; i < rules.getWidth(); i++) {
+            for (int j = 0; j < rules.getHeight(); j++) {
+                board[i][j] = position.get(i, j);
+            }
+        }
+        return board;
+    }
+}
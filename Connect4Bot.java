@@ -1,554 +1,1042 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
   This is the class for the Connect Four Bot. It uses a minmax heuristic to calcualte its next move.
   To find the next best movie, call getNextMove(board) where board is the current board, which can be gotten
   from the Connect4Model.
   BOT_THINKING_TIME is the time in ms the bot will take to 'think'. So increasing will result in longer wait times but
-  a stronger bot. Feel free to change it to whatever you want.
+  a stronger bot. Feel free to change it to whatever you want, or change it while running with setThinkingTime.
+  The search checks the clock as it goes and stops as soon as the time is up, so a move never takes much
+  longer than the thinking time. The move then comes from the deepest search that got anywhere.
+  With more than one thread, helper bots search the same position at the same time and share the table of
+  searched positions, so the main search finds more of its work already done and gets deeper in the same time.
+  Call startPondering(board) after the bot's move to keep it thinking while the other player decides. It works
+  out its answers to the other player's likely moves, so if one of them is played the answer is ready straight
+  away, and otherwise the search starts with the table already full of the positions it thought about.
+  Moves that are forced (a win, blocking the other player's only win, or the last open column) are played
+  straight away without searching, and inside the search a player who can win or has to block only looks at that move.
+  After each move getLastSearchStats() tells how the move was found and how much searching it took. To keep
+  totals over many moves, for example to watch them over JMX, give the bot a Connect4BotStats with setStats.
+  Each depth is searched with plain alpha-beta unless setDriver picks MTD(f) instead, see Driver.
+  The bot plays the standard board unless it is made with other Connect4Rules, such as 8x7 or five in a row.
+  Give it a Connect4PersistentTable with setPersistentTable to keep what it works out near the top of each search
+  in a file, so the next run (or another process using the same file) starts with it already known.
 */
-public class Connect4Bot {
+public class Connect4Bot implements Connect4Engine {
+
+    /**
+     * How each depth of the search is run. ALPHA_BETA searches every move at the top, which gives a rating for every
+     * column (only an upper bound for all but the best, unless setExactRatings is on). MTDF closes in on the rating of the position with null window searches,
+     * which cut off much more but only rate the best move.
+     */
+    public enum Driver {ALPHA_BETA, MTDF};
 
     //These are constants affecting how far ahead to look when calculating a move.
     //Change BOT_THINKING_TIME for the max time the bot will think for in ms.
     private static final int BOT_THINKING_TIME = 2000;
 
     private static final int MIN_DEPTH = 3;
-    private static final int DEPTH_FACTOR = 6;
-
-    private static final int BOARD_X = Connect4Model.BOARD_WIDTH;
-    private static final int BOARD_Y = Connect4Model.BOARD_HEIGHT;
+    //The clock is checked every this many positions (plus one), as checking it at every position would be slow
+    private static final int TIME_CHECK_MASK = 1023;
 
     //These are swapped as the bot assumes it is player 1, but it is player 2 in the game
+    //When it plays RED instead (see setColor) the board's colors are swapped as it is read in
     private static final Connect4Model.Color RED = Connect4Model.Color.YELLOW;
     private static final Connect4Model.Color YELLOW = Connect4Model.Color.RED;
     private static final Connect4Model.Color EMPTY = Connect4Model.Color.EMPTY;
 
-    //Various tuning factors
-    private static final int RATING_FOUR_IN_A_ROW = 1;
-    private static final int RATING_FOUR_FACTOR = 1000;
-    public static final float RATING_THREE_IN_A_ROW = 0.1f;
-    public static final float RATING_TWO_IN_A_ROW = 0.015f;
-    private static final int VERY_NEGATIVE = -1000000;
-
-    private static final boolean BEST_MOVE_RED_ONLY = true;
-    private static final boolean BEST_MOVE_YELLOW_ONLY = true;
-    private static final boolean YELLOW_WEIGHTING = true;
+    //Various tuning factors. Ratings are whole numbers, so they add up exactly and compare exactly.
+    public static final int RATING_THREE_IN_A_ROW = 100;
+    public static final int RATING_TWO_IN_A_ROW = 15;
+    //A won game is rated RATING_WIN minus the number of moves to the winning ball, counted from the position the
+    //search started at, so quicker wins and slower losses rate higher and are the same at any depth
+    public static final int RATING_WIN = 1000000;
+    //Ratings at least this far from 0 are won or lost games, the heuristic never gets close to it
+    public static final int RATING_WIN_THRESHOLD = RATING_WIN / 2;
+    //Beyond every rating, for the widest alpha-beta window
+    private static final int RATING_INFINITY = RATING_WIN + 1;
+    //Rating of full columns in getLastRatings
+    public static final int NO_RATING = Integer.MIN_VALUE;
+
+    //Size of the table remembering positions that were already searched
+    private static final int TABLE_SIZE_MB = 64;
+    //Xor'ed into the key of positions where it is YELLOW's turn. On the standard board keys only use the low 49 bits,
+    //so this can't make one key look like another, and on bigger boards it is as unlikely as any other clash.
+    private static final long YELLOW_TO_MOVE = 0x9E3779B97F4A7C15L;
+
+    private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    //Once this few spaces are left the solver works out the perfect move instead of searching
+    private static final int SOLVER_THRESHOLD = 18;
+    private static final int SOLVER_TABLE_SIZE_MB = 16;
+
+    //Positions up to this many moves from the one being searched are also kept in the persistent table
+    private static final int PERSISTENT_MAX_DEPTH = 4;
 
     public static final String NAME = "Bot";
 
     private int mDepth;
 
+    private final Connect4Rules mRules;
+    private final int mWidth;
+
+    //The search runs on this bitboard, which is converted from the model's board once per move
+    private Connect4Position mPosition;
+    private Connect4TranspositionTable mTable;
+    private Connect4PersistentTable mPersistentTable = null;
+    private Connect4MoveOrder mMoveOrder;
+    //Scratch arrays for the moves at each depth, so ordering them doesn't allocate
+    private int mMoves[][];
+    //Best move of the last finished depth, it is tried first at the next depth
+    private int mBestMove = -1;
+    //Ratings of the last finished odd and even depths, the first guess with MTDF. Ratings swing between odd and
+    //even depths, as whoever plays the last ball searched looks better off, so a guess from two depths back is closer.
+    private int mGuesses[] = new int[2];
+    //Best move found by the last search of the whole position with rateWithDepth
+    private int mRootMove = -1;
+    //Ratings of each column at the last finished depth of the last move, and whether there are any
+    private int mRatings[];
+    private boolean mHasRatings;
+    //Ratings of the depth being searched, kept here so searching doesn't create any garbage
+    private int mDepthRatings[];
+
+    //Helper bots searching alongside this one, they share mTable
+    private int mThreadCount = DEFAULT_THREAD_COUNT;
+    private Connect4Bot mHelpers[] = new Connect4Bot[0];
+    private Future<?> mHelperResults[] = new Future<?>[0];
+    private ExecutorService mHelperPool = null;
+    private volatile boolean mStopped = false;
+
+    private Connect4Book mBook = null;
+    private Connect4Model.Color mColor = RED;
+    private Connect4Solver mSolver = null;
+    private int mSolverThreshold = SOLVER_THRESHOLD;
+    private boolean mForcedMoves = true;
+    //Whether every move at the top of the search gets a full window, so all of their ratings are exact
+    private boolean mExactRatings = false;
+    private Driver mDriver = Driver.ALPHA_BETA;
+
+    private long mThinkingTime = BOT_THINKING_TIME;
+    private int mMaxDepth = 0;
+    private long mDeadline = Long.MAX_VALUE;
+    private long mNodes;
+    private long mTableProbes;
+    private long mTableHits;
+
+    private Connect4SearchStats mLastStats = new Connect4SearchStats();
+    private Connect4BotStats mStats = null;
+
+    //Pondering runs another bot sharing mTable in the background, and keeps its answers to each reply
+    private Connect4Bot mPonderer = null;
+    private ExecutorService mPonderPool = null;
+    private Future<?> mPonderResult = null;
+    private volatile boolean mPonderCancelled = false;
+    private long mPonderKeys[];
+    private int mPonderMoves[];
+    private int mPonderCount = 0;
+
+    public Connect4Bot() {
+        this(TABLE_SIZE_MB);
+    }
+
     /**
-     * Gets the next move as judged by the bot.
-     * @param board board being played on
-     * @return the column number of the move from 0 - BOARD_X
+     * @param tableSizeMb size in megabytes of the table remembering positions that were already searched
      */
-    public int getNextMove(Connect4Model.Color board[][]) {
+    public Connect4Bot(int tableSizeMb) {
+        this(Connect4Rules.STANDARD, tableSizeMb);
+    }
 
-        long t = System.currentTimeMillis();
-        mDepth = MIN_DEPTH;
-        int move = 0;
+    /**
+     * @param rules size of the board and how many in a row win
+     * @param tableSizeMb size in megabytes of the table remembering positions that were already searched
+     */
+    public Connect4Bot(Connect4Rules rules, int tableSizeMb) {
+        this(rules, new Connect4TranspositionTable(tableSizeMb));
+    }
 
+    /**
+     * Makes a bot that shares its table of searched positions, so bots playing at the same time on other threads
+     * find each other's work. Each bot still needs its own thread, as only the table is safe to share.
+     * @param rules size of the board and how many in a row win
+     * @param table table remembering positions that were already searched, made for the same rules
+     */
+    public Connect4Bot(Connect4Rules rules, Connect4TranspositionTable table) {
+        mRules = rules;
+        mWidth = rules.getWidth();
+        mTable = table;
+        mPosition = new Connect4Position(rules);
+        mMoveOrder = new Connect4MoveOrder(rules);
+        mMoves = new int[rules.getSpots() + 2][mWidth];
+        mRatings = new int[mWidth];
+        mDepthRatings = new int[mWidth];
+        mPonderKeys = new long[mWidth];
+        mPonderMoves = new int[mWidth];
+    }
 
-        float ratings[] = new float[7];
+    public Connect4Rules getRules() {
+        return mRules;
+    }
 
-        while ((System.currentTimeMillis() - t) < (BOT_THINKING_TIME/DEPTH_FACTOR)) {
-            move = getNextMove(board, ratings);
-            mDepth++;
-            if (mDepth > countBoardSpacesLeft(board)) {
-                break;
-            }
+    /**
+     * Sets how many threads search for each move
+     * @param threadCount number of threads, 1 searches on the calling thread only
+     */
+    public void setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Sets the most time the bot will think for per move
+     * @param thinkingTime time in ms
+     */
+    public void setThinkingTime(long thinkingTime) {
+        mThinkingTime = Math.max(1, thinkingTime);
+    }
+
+    public long getThinkingTime() {
+        return mThinkingTime;
+    }
+
+    /**
+     * Sets how many moves deep the bot searches at most, so it can stop before the thinking time is up
+     * @param maxDepth depth in moves, 0 for no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        mMaxDepth = Math.max(0, maxDepth);
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return how many positions the last call to getNextMove searched on the calling thread
+     */
+    public long getNodes() {
+        return mNodes;
+    }
+
+    /**
+     * @return true if the last search ran out of thinking time before it finished its deepest depth
+     */
+    public boolean isOutOfTime() {
+        return mStopped;
+    }
+
+    /**
+     * @return how the last move was found and how much searching it took, on every thread
+     */
+    public Connect4SearchStats getLastSearchStats() {
+        return mLastStats;
+    }
+
+    /**
+     * Gets the rating of each column at the deepest finished depth of the last move, from the point of view of
+     * the bot. Only the best move's rating is exact, the others are upper bounds as the search stops once it
+     * knows a move can't beat the best one, unless setExactRatings is on. A rating of RATING_WIN - n means the bot wins with its n'th ball from
+     * the position, and -(RATING_WIN - n) that it loses to the other player's ball n moves on.
+     * @param ratings array of the board's width to copy the ratings into. Full columns are rated NO_RATING.
+     * @return false if the move didn't come from a search (such as from the book), when ratings is left unchanged
+     */
+    public boolean getLastRatings(int ratings[]) {
+        if (mHasRatings) {
+            System.arraycopy(mRatings, 0, ratings, 0, mWidth);
         }
+        return mHasRatings;
+    }
 
-        return move;
+    /**
+     * Sets the totals to add the stats of every move to
+     * @param stats the totals, which can be shared between bots, or null to not keep any
+     */
+    public void setStats(Connect4BotStats stats) {
+        mStats = stats;
     }
 
     /**
-     * Counts the number of spaces in the board
-     * @param board board being played on
-     * @return number of spaces
+     * Forgets every position searched so far
      */
-    private int countBoardSpacesLeft(Connect4Model.Color board[][])
-    {
-        int count = 0;
-        for (int i = 0; i < BOARD_X; i++)
-            for (int j = 0; j < BOARD_Y; j++)
-                if (board[i][j] == EMPTY)
-                    count++;
-        return count;
+    public void clearTable() {
+        mTable.clear();
     }
 
     /**
-     * Checks a strip oriented in the (dirx, diry) direction to return a rating where
-     * x, y is the spot directly after the strip
+     * Sets the table in a file to keep the results of searching near the top of the tree in, and to look them up in
+     * @param table the table, which can be shared between bots and processes, or null to not use one
+     * @throws IllegalArgumentException if the table is for a different board
+     */
+    public void setPersistentTable(Connect4PersistentTable table) {
+        if (table != null && table.getRules() != mRules) {
+            throw new IllegalArgumentException("The table is for a " + table.getRules() + " board, not " + mRules);
+        }
+        mPersistentTable = table;
+    }
+
+    /**
+     * Sets how few empty spaces there have to be for the bot to solve the game exactly instead of searching
+     * @param solverThreshold number of empty spaces, 0 never solves
+     */
+    public void setSolverThreshold(int solverThreshold) {
+        mSolverThreshold = solverThreshold;
+    }
+
+    public int getSolverThreshold() {
+        return mSolverThreshold;
+    }
+
+    /**
+     * Sets how each depth of the search is run
+     * @param driver ALPHA_BETA unless changed. With MTDF only the best move is rated, so getLastRatings has
+     *               nothing to give.
+     */
+    public void setDriver(Driver driver) {
+        mDriver = driver;
+    }
+
+    public Driver getDriver() {
+        return mDriver;
+    }
+
+    /**
+     * Sets whether forced moves (a win, the only block or the last open column) are played without searching
+     * @param forcedMoves false to search them like any other move, so every column gets a rating
+     */
+    public void setForcedMoves(boolean forcedMoves) {
+        mForcedMoves = forcedMoves;
+    }
+
+    /**
+     * Sets whether every column's rating is worked out exactly. Normally a move at the top of the search only has
+     * to show it can't beat the best move so far, which is much quicker but leaves its rating an upper bound.
+     * MTDF only ever rates the best move, so this only makes a difference with ALPHA_BETA.
+     * @param exactRatings true to search every move at the top with a full window, for getLastRatings
+     */
+    public void setExactRatings(boolean exactRatings) {
+        mExactRatings = exactRatings;
+    }
+
+    public boolean isExactRatings() {
+        return mExactRatings;
+    }
+
+    /**
+     * Sets the color the bot plays as
+     * @param color the bot's color, YELLOW unless changed
+     */
+    public void setColor(Connect4Model.Color color) {
+        mColor = color;
+    }
+
+    public Connect4Model.Color getColor() {
+        return mColor;
+    }
+
+    /**
+     * Sets the opening book to look moves up in before searching
+     * @param book the book, or null to always search
+     */
+    public void setOpeningBook(Connect4Book book) {
+        mBook = book;
+    }
+
+    /**
+     * @param start time the bot starts thinking, from System.nanoTime
+     * @return when the thinking time is up, or as late as can be if a very long thinking time would go past that
+     */
+    private long getDeadline(long start) {
+        long nanos = mThinkingTime < Long.MAX_VALUE / 1000000 ? mThinkingTime * 1000000 : Long.MAX_VALUE;
+        return start + Math.min(nanos, Long.MAX_VALUE - start);
+    }
+
+    /**
+     * Gets the next move as judged by the bot.
      * @param board board being played on
-     * @param precolor color of previous spot
-     * @param count number of balls of color precolor on the strip
-     * @param x X coordinate of spot
-     * @param y Y coordinate of spot
-     * @param dirx X coordinate of direction vector
-     * @param diry Y coordinate of direction vector
-     * @return
+     * @return the column number of the move from 0 - the board's width
      */
-    private float checkStrip(Connect4Model.Color board[][], Connect4Model.Color precolor,
-                             int count, int x, int y, int dirx, int diry) {
+    public int getNextMove(Connect4Model.Color board[][]) {
 
-        float rating = 0;
+        stopPondering();
+        long start = System.nanoTime();
+        mDeadline = getDeadline(start);
+        mPosition.set(board, mColor != RED);
+        mHasRatings = false;
+
+        int move = -1;
+        //The other player made a move that was pondered, so the answer is already known
+        long key = mPosition.getKey();
+        for (int i = 0; i < mPonderCount; i++) {
+            if (mPonderKeys[i] == key) {
+                move = mPonderMoves[i];
+                mNodes = 0;
+                mLastStats = new Connect4SearchStats();
+                mLastStats.source = Connect4SearchStats.Source.PONDER;
+                mLastStats.move = move;
+                mLastStats.timeNanos = System.nanoTime() - start;
+                break;
+            }
+        }
+        mPonderCount = 0;
 
-        if (count >= 3) {
-            if (precolor == RED)
-                return RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW;
-            else
-                return -RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW;
+        if (move == -1) {
+            mStopped = false;
+            move = think();
+        }
+        if (mStats != null) {
+            mStats.add(mLastStats);
         }
-        else if (count >= 2) {
+        return move;
+    }
 
-            int n = 0;
-            if (isWithinBounds(board, x - (4 * dirx), y - (4 * diry))) {
-                if (board[x - 4 * dirx][y - 4 * diry] == EMPTY)
-                    n++;
-            }
-            if (isWithinBounds(board, x, y) && board[x][y] == EMPTY) {
-                n++;
+    /**
+     * Works out the best move for mPosition by the time mDeadline is reached, or until mStopped is set
+     * @return the column of the move
+     */
+    private int think() {
+
+        long start = System.nanoTime();
+        mNodes = 0;
+        mTableProbes = 0;
+        mTableHits = 0;
+        mDepth = mMaxDepth > 0 ? Math.min(MIN_DEPTH, mMaxDepth) : MIN_DEPTH;
+        Connect4SearchStats stats = new Connect4SearchStats();
+        mLastStats = stats;
+
+        int forced = mForcedMoves ? getForcedMove(mPosition) : -1;
+        if (forced != -1) {
+            return finishStats(stats, Connect4SearchStats.Source.FORCED, forced, start);
+        }
+
+        if (mBook != null) {
+            int move = mBook.getMove(mPosition);
+            if (move != -1 && mPosition.canPlay(move)) {
+                return finishStats(stats, Connect4SearchStats.Source.BOOK, move, start);
             }
-            if (precolor == RED) {
-                rating += n * RATING_THREE_IN_A_ROW;
+        }
+
+        if (mPosition.countSpacesLeft() <= mSolverThreshold && Connect4Solver.isSupported(mRules)) {
+            if (mSolver == null) {
+                mSolver = new Connect4Solver(mRules, SOLVER_TABLE_SIZE_MB);
             }
-            else{
-                rating -= n * RATING_THREE_IN_A_ROW;
+            //The solver gets half the time, so if it can't finish the search still has the rest
+            long now = System.nanoTime();
+            long solverNodes = mSolver.getNodes();
+            int move = mSolver.getBestMove(mPosition, RED, now + (mDeadline - now) / 2);
+            stats.nodes += mSolver.getNodes() - solverNodes;
+            if (move != -1) {
+                return finishStats(stats, Connect4SearchStats.Source.SOLVER, move, start);
             }
         }
-        else if (count >= 1) {
-
-            int n = 0;
-            if (isWithinBounds(board, x - (3 * dirx), y - (3 * diry))) {
-                if (board[x - 3 * dirx][y - 3 * diry] == EMPTY) {
-                    n++;
-                    if (isWithinBounds(board, x - (4 * dirx), y - (4 * diry))) {
-                        if (board[x - 4 * dirx][y - 4 * diry] == precolor) {
-                            float r = RATING_THREE_IN_A_ROW;
-                            if (isWithinBounds(board, x - (5 * dirx), y - (5 * diry)))
-                                if (board[x - 5 * dirx][y - 5 * diry] == precolor) {
-                                    r = r / 2;
-                                    if (isWithinBounds(board, x - (6 * dirx), y - (6 * diry)))
-                                        if (board[x - 6 * dirx][y - 6 * diry] == precolor)
-                                            r = 0;
-                                }
-                            n = 0;
-                            if (precolor == RED)
-                                rating += r;
-                            else
-                                rating -= r;
-                        }
-                        else if (board[x - 4 * dirx][y - 4 * diry] == EMPTY)
-                            n++;
-                    }
+
+        mTable.newSearch();
+        mMoveOrder.newSearch();
+        mBestMove = -1;
+        mGuesses[0] = mPosition.getScore(RED);
+        mGuesses[1] = mGuesses[0];
+        startHelpers();
+
+        stats.iterationNanos = new long[mPosition.countSpacesLeft() + 1];
+
+        while (!mStopped && mDepth <= mPosition.countSpacesLeft() && (mMaxDepth == 0 || mDepth <= mMaxDepth)) {
+            if (mDriver == Driver.MTDF) {
+                //Only a finished depth counts, as until then the best move may only be known to beat a guess
+                int move = searchWithNullWindows();
+                if (!mStopped && move != -1) {
+                    mBestMove = move;
                 }
             }
-            if (isWithinBounds(board, x, y) && board[x][y] == EMPTY) {
-                n++;
-                if (isWithinBounds(board, x + dirx, y + diry)) {
-                    if (board[x + dirx][y + diry] == precolor) {
-                        float r = RATING_THREE_IN_A_ROW;
-                        if (isWithinBounds(board, x + 2 * dirx, y + 2 * diry))
-                            if (board[x + 2 * dirx][y + 2 * diry] == precolor) {
-                                r = r / 2;
-                                if (isWithinBounds(board, x + 3 * dirx, y + 3 * diry))
-                                    if (board[x + 3 * dirx][y + 3 * diry] == precolor)
-                                        r = 0;
-                            }
-                        n = 0;
-                        if (precolor == RED)
-                            rating += r;
-                        else
-                            rating -= r;
-                    }
-                    else if (board[x + dirx][y + diry] == EMPTY)
-                        n++;
+            else {
+                //A search cut short still has a move if it finished any root move, as the last best move goes first
+                int move = getNextMove(mPosition, mDepthRatings);
+                if (move != -1) {
+                    mBestMove = move;
                 }
+                if (!mStopped) {
+                    System.arraycopy(mDepthRatings, 0, mRatings, 0, mWidth);
+                    mHasRatings = true;
+                }
+            }
+            if (!mStopped) {
+                stats.depth = mDepth;
+                stats.iterationNanos[mDepth] = System.nanoTime() - start;
             }
-            if (precolor == RED)
-                rating += (n / 2) * RATING_TWO_IN_A_ROW;
-            else
-                rating -= (n / 2) * RATING_TWO_IN_A_ROW;
+            mDepth++;
         }
 
-        return rating;
+        stopHelpers();
+        for (Connect4Bot helper : mHelpers) {
+            stats.nodes += helper.mNodes;
+            stats.tableProbes += helper.mTableProbes;
+            stats.tableHits += helper.mTableHits;
+        }
+        stats.cutoffs = mMoveOrder.getCutoffs();
+        stats.firstMoveCutoffs = mMoveOrder.getFirstMoveCutoffs();
+        if (mBestMove == -1) {
+            //Out of time before a single move was rated, so just play the first one that fits
+            mBestMove = mMoveOrder.order(mPosition, RED, 0, -1, mMoves[0]) > 0 ? mMoves[0][0] : -1;
+        }
+        return finishStats(stats, Connect4SearchStats.Source.SEARCH, mBestMove, start);
     }
 
     /**
-     * Gives a rating for a given board
-     * @param board board being played on
-     * @return
+     * Finds the move when there is no choice to make: winning straight away, blocking the other player's only
+     * winning spot, or playing the only column that isn't full
+     * @param position position where it is the bot's turn
+     * @return the column of the move, or -1 if it has to be searched for
      */
-    public float rateBoard(Connect4Model.Color board[][])
-    {
-        float rating = 0;
-        int i, j, count;
-        Connect4Model.Color precolor;
-
-        //Check horizontally
-        precolor = EMPTY; count = 0;
-        for (i = 0; i < BOARD_Y; i++)    {
-            for (j = 0; j < BOARD_X; j++)    {
-
-                if (board[j][i] == precolor && board[j][i] != EMPTY) {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, j, i, 1, 0);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-
-                    count = 0;
+    private int getForcedMove(Connect4Position position) {
+        int wins = position.getWinningMoves(RED);
+        if (wins != 0) {
+            return Integer.numberOfTrailingZeros(wins);
+        }
+        //With two threats every move loses, so the search picks the one that holds out the longest
+        int threats = position.getWinningMoves(YELLOW);
+        if (Integer.bitCount(threats) == 1) {
+            return Integer.numberOfTrailingZeros(threats);
+        }
+        int open = -1;
+        for (int i = 0; i < mWidth; i++) {
+            if (position.canPlay(i)) {
+                if (open != -1) {
+                    return -1;
                 }
-                precolor = board[j][i];
-            }
-            float temp = checkStrip(board, precolor, count, j, i, 1, 0);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
+                open = i;
             }
-            rating += temp;
+        }
+        return open;
+    }
 
-            count = 0;
-            precolor = EMPTY;
+    /**
+     * Fills in the stats that are the same however the move was found
+     * @param stats stats of the move being made
+     * @param source where the move came from
+     * @param move column of the move
+     * @param start System.nanoTime() the move was started at
+     * @return the column of the move
+     */
+    private int finishStats(Connect4SearchStats stats, Connect4SearchStats.Source source, int move, long start) {
+        stats.source = source;
+        stats.move = move;
+        stats.timeNanos = System.nanoTime() - start;
+        stats.nodes += mNodes;
+        stats.tableProbes += mTableProbes;
+        stats.tableHits += mTableHits;
+        return move;
+    }
+
+    /**
+     * Starts thinking about the other player's replies in the background, until the next call to getNextMove.
+     * The replies are tried best first, as guessed by the last search, and each gets the full thinking time.
+     * @param board board after the bot's move, with the other player to move
+     */
+    public void startPondering(Connect4Model.Color board[][]) {
+        stopPondering();
+        if (mPonderer == null) {
+            mPonderer = new Connect4Bot(mRules, mTable);
+            mPonderPool = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Connect4Bot ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        mPonderer.mThreadCount = mThreadCount;
+        mPonderer.mThinkingTime = mThinkingTime;
+        mPonderer.mMaxDepth = mMaxDepth;
+        mPonderer.mSolverThreshold = mSolverThreshold;
+        mPonderer.mForcedMoves = mForcedMoves;
+        mPonderer.mDriver = mDriver;
+        mPonderer.mBook = mBook;
+        mPonderer.mPersistentTable = mPersistentTable;
+        mPonderer.mPosition.set(board, mColor != RED);
+        mPonderCancelled = false;
+        mPonderCount = 0;
+        mPonderResult = mPonderPool.submit(this::ponder);
+    }
 
+    /**
+     * Stops pondering and waits for the background thread to finish
+     */
+    public void stopPondering() {
+        if (mPonderResult == null) {
+            return;
+        }
+        mPonderCancelled = true;
+        mPonderer.mStopped = true;
+        try {
+            mPonderResult.get();
+        } catch (Exception e) {
+            //Pondering only saves time later, so the bot can carry on without it
+        }
+        mPonderResult = null;
+    }
 
-        //Check vertically
-        precolor = EMPTY; count = 0;
-        for (j = 0; j < BOARD_X; j++)    {
-            for (i = 0; i < BOARD_Y; i++)    {
+    /**
+     * Runs on the ponder thread, searching the position after each of the other player's replies in turn
+     */
+    private void ponder() {
+        Connect4Position position = mPonderer.mPosition;
+        if (position.hasFour(RED) || position.hasFour(YELLOW)) {
+            return; //Game is over
+        }
 
-                if (board[j][i] == precolor && board[j][i] != EMPTY)  {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, j, i, 0, 1);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-                    count = 0;
-                }
-                precolor = board[j][i];
-            }
-            float temp = checkStrip(board, precolor, count, j, i, 0, 1);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
-            }
-            rating += temp;
-            count = 0;
-            precolor = EMPTY;
+        //The last search stored the reply it expected, which goes first
+        long entry = mTable.probe(position.getCanonicalKey() ^ YELLOW_TO_MOVE);
+        int expected = entry != 0 ? Connect4TranspositionTable.getMove(entry) : -1;
+        if (expected != -1 && expected != Connect4TranspositionTable.NO_MOVE && position.isMirrored()) {
+            expected = position.mirror(expected);
         }
+        int replies[] = new int[mWidth];
+        int count = mPonderer.mMoveOrder.order(position, YELLOW, 0, expected, replies);
 
+        for (int n = 0; n < count; n++) {
+            //Cleared before checking for cancelling, so a stopPondering in between can't be lost
+            mPonderer.mStopped = false;
+            if (mPonderCancelled) {
+                break;
+            }
 
-        //Check diagonally to the right
-        precolor = EMPTY; count = 0;
-        for (i = BOARD_Y-1; i >= 0; i--)    {
-            for (j = 0; (j < BOARD_X && (i+j) < BOARD_Y); j++)    {
-                if (board[j][i+j] == precolor && board[j][i+j] != EMPTY) {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, j, i+j, 1, 1);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-                    count = 0;
-                }
-                precolor = board[j][i+j];
+            int reply = replies[n];
+            position.play(reply, YELLOW);
+            if (position.hasFour(YELLOW)) {
+                position.undo(reply);
+                continue; //The reply wins, so there's nothing to answer
             }
-            float temp = checkStrip(board, precolor, count, j, i+j, 1, 1);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
+            mPonderer.mDeadline = mPonderer.getDeadline(System.nanoTime());
+            int move = mPonderer.think();
+            if (!mPonderCancelled) {
+                mPonderKeys[mPonderCount] = position.getKey();
+                mPonderMoves[mPonderCount] = move;
+                mPonderCount++;
             }
-            rating += temp;
-            count = 0;
-            precolor = EMPTY;
+            position.undo(reply);
         }
+    }
 
-        precolor = EMPTY; count = 0;
-        for (j = 1; j < BOARD_X; j++)    {
-            for (i = 0; (i < BOARD_Y && (i+j) < BOARD_X); i++)    {
-                if (board[j+i][i] == precolor && board[j+i][i] != EMPTY) {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, j+i, i, 1, 1);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-                    count = 0;
-                }
-                precolor = board[j+i][i];
-            }
-            float temp = checkStrip(board, precolor, count, j+i, i, 1, 1);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
+    /**
+     * Starts the helper bots searching mPosition in the background
+     */
+    private void startHelpers() {
+        int helperCount = mThreadCount - 1;
+        if (helperCount <= 0) {
+            //Helpers left over from searching with more threads would otherwise still be counted in the stats
+            if (mHelperPool != null) {
+                mHelperPool.shutdown();
+                mHelperPool = null;
             }
-            rating += temp;
-            count = 0;
-            precolor = EMPTY;
+            mHelpers = new Connect4Bot[0];
+            mHelperResults = new Future<?>[0];
+            return;
         }
-
-
-        //Check diagonally to the left
-        precolor = EMPTY; count = 0;
-        for (i = BOARD_Y-1; i >= 0; i--)    {
-            for (j = 0; (j < BOARD_X && (i+j) < BOARD_Y); j++)    {
-                if (board[BOARD_X-1-j][i+j] == precolor && board[BOARD_X-1-j][i+j] != EMPTY) {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, BOARD_X-1-j, i+j, -1, 1);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-                    count = 0;
-                }
-                precolor = board[BOARD_X-1-j][i+j];
+        if (mHelpers.length != helperCount) {
+            if (mHelperPool != null) {
+                mHelperPool.shutdown();
             }
-            float temp = checkStrip(board, precolor, count, BOARD_X-1-j, i+j, -1, 1);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
+            mHelperPool = Executors.newFixedThreadPool(helperCount, r -> {
+                Thread thread = new Thread(r, "Connect4Bot helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            mHelpers = new Connect4Bot[helperCount];
+            mHelperResults = new Future<?>[helperCount];
+            for (int i = 0; i < helperCount; i++) {
+                mHelpers[i] = new Connect4Bot(mRules, mTable);
             }
-            rating += temp;
-            count = 0;
-            precolor = EMPTY;
         }
 
-        precolor = EMPTY; count = 0;
-        for (j = BOARD_X-2; j >= 0; j--)    {
-            for (i = 0; (i < BOARD_Y && (j-i) >= 0); i++)    {
-                if (board[j-i][i] == precolor && board[j-i][i] != EMPTY) {
-                    count++;
-                }
-                else    {
-                    float temp = checkStrip(board, precolor, count, j-i, i, -1, 1);
-                    if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                        return temp;
-                    }
-                    rating += temp;
-                    count = 0;
+        for (int i = 0; i < helperCount; i++) {
+            Connect4Bot helper = mHelpers[i];
+            //Half the helpers start a move deeper so they don't all search the same depth at the same time
+            int startDepth = MIN_DEPTH + (i % 2);
+            helper.mPosition.copyFrom(mPosition);
+            helper.mPersistentTable = mPersistentTable;
+            helper.mStopped = false;
+            mHelperResults[i] = mHelperPool.submit(() -> helper.help(startDepth));
+        }
+    }
+
+    /**
+     * Stops the helper bots and waits for them to finish
+     */
+    private void stopHelpers() {
+        for (int i = 0; i < mHelpers.length; i++) {
+            mHelpers[i].mStopped = true;
+        }
+        for (int i = 0; i < mHelperResults.length; i++) {
+            try {
+                if (mHelperResults[i] != null) {
+                    mHelperResults[i].get();
                 }
-                precolor = board[j-i][i];
+            } catch (Exception e) {
+                //A helper only fills the table, so the move can still be made without it
             }
-            float temp = checkStrip(board, precolor, count, j-i, i, -1, 1);
-            if (Math.abs(temp) >= RATING_FOUR_FACTOR * RATING_FOUR_IN_A_ROW) {
-                return temp;
-            }
-            rating += temp;
-            count = 0;
-            precolor = EMPTY;
+            mHelperResults[i] = null;
         }
+    }
 
-        return rating;
-
+    /**
+     * Gets how often the first move tried caused the cut off in the last search. The closer it is to 1,
+     * the better the bot is at guessing the best move before searching it.
+     * @return the fraction of cut offs caused by the first move, from 0 - 1
+     */
+    public float getFirstMoveCutoffRate() {
+        return mMoveOrder.getFirstMoveCutoffRate();
     }
 
-    private float rateWithDepth(Connect4Model.Color board[][], Connect4Model.Color player) {
-        return rateWithDepth(board, player, 1);
+    /**
+     * Searches mPosition deeper and deeper until stopped. The results only go into the shared table.
+     * @param startDepth depth of the first search
+     */
+    private void help(int startDepth) {
+        mDeadline = Long.MAX_VALUE;
+        mNodes = 0;
+        mTableProbes = 0;
+        mTableHits = 0;
+        mDepth = startDepth;
+        mMoveOrder.newSearch();
+        mBestMove = -1;
+        while (!mStopped && mDepth <= mPosition.countSpacesLeft()) {
+            mBestMove = getNextMove(mPosition, null);
+            mDepth++;
+        }
     }
 
     /**
-     * Rates a board by looking into all possible moves at a given depth.
+     * Gives a rating for a given board
      * @param board board being played on
-     * @param player current player's turn
-     * @param depth how many moves to look ahead
      * @return
      */
-    private float rateWithDepth(Connect4Model.Color board[][], Connect4Model.Color player, int depth)
+    public int rateBoard(Connect4Model.Color board[][])
     {
-        float rating = 0;
-        int y;
-        float temp = rateBoard(board);
+        Connect4Position position = new Connect4Position(mRules);
+        position.set(board);
+        return rateBoard(position);
+    }
 
-        //NOTE this is to check for a winner, if rate function changes then CHeckForFours function should replace this
-        if (temp >= RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR) {
-            return RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR;
+    /**
+     * Gives a rating for a given position. The position keeps its rating up to date as balls are
+     * added and removed, so this doesn't need to look at the board.
+     * @param position position being searched
+     * @return
+     */
+    private int rateBoard(Connect4Position position)
+    {
+        if (position.hasFour(RED)) {
+            return RATING_WIN;
         }
-        else if (temp <= (-RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR))    {
-
-            return -RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR;
+        if (position.hasFour(YELLOW)) {
+            return -RATING_WIN;
+        }
+        return position.getScore(RED);
+    }
 
+    /**
+     * Rates a board by looking into all possible moves at a given depth, using alpha-beta pruning to skip
+     * moves that can't change the outcome. The rating is from the point of view of player, so a good
+     * board for YELLOW is positive when it is YELLOW's turn. Results are kept in mTable so positions
+     * reached again by a different order of moves aren't searched twice.
+     * Nothing is created while searching, every array it needs is made with the bot.
+     * @param position position being searched
+     * @param player current player's turn
+     * @param depth how many moves have been looked ahead so far
+     * @param alpha rating player is already guaranteed elsewhere in the tree
+     * @param beta rating the other player is already guaranteed, so anything at or above it gets cut off
+     * @return
+     */
+    private int rateWithDepth(Connect4Position position, Connect4Model.Color player, int depth,
+                              int alpha, int beta)
+    {
+        if ((++mNodes & TIME_CHECK_MASK) == 0 && System.nanoTime() >= mDeadline) {
+            mStopped = true;
+        }
+        if (mStopped) {
+            return 0; //Out of time, the caller throws this rating away
         }
 
-        if (depth >= mDepth)    {
-            return temp;
-        }
-
-        int count = 0;
-        boolean redCanWin = false; //This is if all yellow moves result in a win
-        float max_rating = 0;
-        float ratings8[] = new float[BOARD_X];
-        if (player == RED)
-            max_rating = VERY_NEGATIVE;
-        else if (player == YELLOW)
-            max_rating = -VERY_NEGATIVE;
-        for (int i = 0; i < BOARD_X; i++)    {
-            y = addBall(board, i, player);
-
-            //column is full
-            if (y == -1) {
-                continue;
+        int remaining = mDepth - depth;
+        //A position and its mirror image share an entry, with the moves stored as they are in the lower keyed one
+        long positionKey = position.getKey();
+        long mirrorKey = position.getMirrorKey();
+        boolean mirrored = mirrorKey < positionKey;
+        long key = mirrored ? mirrorKey : positionKey;
+        if (player == YELLOW) {
+            key ^= YELLOW_TO_MOVE;
+        }
+        int bestMove = Connect4TranspositionTable.NO_MOVE;
+
+        //Positions that end the game are never stored, so this can come before checking for a winner
+        if (remaining > 0) {
+            long entry = mTable.probe(key);
+            mTableProbes++;
+            if (mPersistentTable != null && depth <= PERSISTENT_MAX_DEPTH) {
+                //An earlier run may have searched the position deeper than this one has so far
+                long saved = mPersistentTable.probe(key);
+                if (saved != 0 && (entry == 0
+                        || Connect4TranspositionTable.getDepth(saved) > Connect4TranspositionTable.getDepth(entry))) {
+                    entry = saved;
+                }
             }
-
-            Connect4Model.Color otherPlayer = player == RED ? YELLOW : RED;
-            temp = rateWithDepth(board, otherPlayer, depth+1);
-            if (temp >= RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR)    {
-                if (player == RED)    {
-
-                    board[i][y] = EMPTY;
-                    return RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR;
+            if (entry != 0) {
+                mTableHits++;
+                bestMove = Connect4TranspositionTable.getMove(entry);
+                if (mirrored && bestMove != Connect4TranspositionTable.NO_MOVE) {
+                    bestMove = position.mirror(bestMove);
                 }
-                else if (player == YELLOW)    {
-
-                    redCanWin = true;
-                    board[i][y] = EMPTY;
-                    continue;
+                //The whole position is always searched, so its best move is known
+                if (depth > 0 && Connect4TranspositionTable.getDepth(entry) >= remaining) {
+                    int score = fromTableScore(Connect4TranspositionTable.getScore(entry), depth);
+                    int bound = Connect4TranspositionTable.getBound(entry);
+                    if (bound == Connect4TranspositionTable.BOUND_EXACT) {
+                        return score;
+                    }
+                    else if (bound == Connect4TranspositionTable.BOUND_LOWER) {
+                        alpha = Math.max(alpha, score);
+                    }
+                    else {
+                        beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
                 }
             }
-            else if (temp <= (-RATING_FOUR_IN_A_ROW*RATING_FOUR_FACTOR))    {
-                if (player == YELLOW)    {
-                    board[i][y] = EMPTY;
-                    return -RATING_FOUR_IN_A_ROW;
-                }
+        }
+
+        Connect4Model.Color otherPlayer = player == RED ? YELLOW : RED;
+        if (position.hasFour(otherPlayer)) {
+            return -(RATING_WIN - depth);
+        }
+        //Nothing beats winning straight away, so there's no need to search any further
+        int wins = position.getWinningMoves(player);
+        if (wins != 0) {
+            if (depth == 0) {
+                mRootMove = Integer.numberOfTrailingZeros(wins);
             }
+            return RATING_WIN - (depth + 1);
+        }
 
-            if (player == RED && BEST_MOVE_RED_ONLY)    {
-                if (temp > max_rating)    {
-                    max_rating = temp;
-                }
+        if (depth >= mDepth)    {
+            return position.getScore(player);
+        }
+
+        //If the other player could win next move, blocking them is the only move worth searching,
+        //and if they could win in two places there is no stopping them
+        int threats = position.getWinningMoves(otherPlayer);
+        if ((threats & (threats - 1)) != 0) {
+            return -(RATING_WIN - (depth + 2));
+        }
+        int forced = threats != 0 ? Integer.numberOfTrailingZeros(threats) : -1;
+
+        //One move from the bottom of the search every move leads to a leaf, so they are rated all together from here
+        //instead of being played one at a time. A leaf is a loss if the other player can then win straight away,
+        //which is worked out for every move at once, and otherwise it gets the rating the move would give.
+        boolean leaves = remaining == 1;
+        int losingMoves = leaves ? position.getLosingMoves(player) : 0;
+
+        int alphaOrig = alpha;
+        int max_rating = -RATING_INFINITY;
+        //The best move stored for this position is tried first as it is the most likely to cause a cut off
+        int moves[] = mMoves[depth];
+        int count;
+        if (forced != -1) {
+            moves[0] = forced;
+            count = 1;
+        }
+        else {
+            count = mMoveOrder.order(position, player, depth, bestMove, moves);
+        }
+        boolean symmetric = positionKey == mirrorKey;
+        for (int n = 0; n < count; n++)    {
+            int i = moves[n];
+            if (symmetric && i > position.mirror(i)) {
+                continue; //Same as playing the mirror image move, which is searched instead
             }
-            else if (player == YELLOW && BEST_MOVE_YELLOW_ONLY)    {
-                if (temp < max_rating)    {
-                    max_rating = temp;
+            int temp;
+            if (leaves) {
+                if ((++mNodes & TIME_CHECK_MASK) == 0 && System.nanoTime() >= mDeadline) {
+                    mStopped = true;
                 }
+                temp = (losingMoves & (1 << i)) != 0 ? -(RATING_WIN - (depth + 2)) : position.getScoreAfter(i, player);
             }
-            else    {
-                if (YELLOW_WEIGHTING)
-                    ratings8[count] = temp;
-                else
-                    rating += temp;
+            else {
+                position.play(i, player);
+                temp = -rateWithDepth(position, otherPlayer, depth+1, -beta, -alpha);
+                position.undo(i); //Remove Ball
+            }
+            if (mStopped) {
+                return 0; //The search was stopped, so temp can't be trusted and nothing gets stored
+            }
+
+            if (temp > max_rating)    {
+                max_rating = temp;
+                bestMove = i;
+                if (temp > alpha)    {
+                    alpha = temp;
+                    if (alpha >= beta) {
+                        //The other player won't allow this board, so the rest of the moves don't matter
+                        mMoveOrder.cutoff(position, player, depth, i, n, remaining);
+                        break;
+                    }
+                }
             }
-            board[i][y] = EMPTY; //Remove Ball
-            count++;
         }
 
+        if (count == 0) {
+            return 0; //Board is full, it's a tie
+        }
+        if (depth == 0) {
+            mRootMove = bestMove;
+        }
 
-        if (count > 0)    {
-            if (player == RED && BEST_MOVE_RED_ONLY)    {
-                return max_rating;
+        int bound = Connect4TranspositionTable.BOUND_EXACT;
+        if (max_rating <= alphaOrig) {
+            bound = Connect4TranspositionTable.BOUND_UPPER;
+        }
+        else if (max_rating >= beta) {
+            bound = Connect4TranspositionTable.BOUND_LOWER;
+        }
+        if (mirrored && bestMove != Connect4TranspositionTable.NO_MOVE) {
+            bestMove = position.mirror(bestMove);
+        }
+        int tableScore = toTableScore(max_rating, depth);
+        mTable.store(key, tableScore, remaining, bound, bestMove);
+        if (mPersistentTable != null && depth <= PERSISTENT_MAX_DEPTH) {
+            mPersistentTable.store(key, tableScore, remaining, bound, bestMove);
+        }
+        return max_rating;
+    }
+
+    /**
+     * Searches mPosition mDepth moves deep with MTD(f): a series of null window searches, each only asking whether
+     * the rating is above a guess, which close in on the exact rating from both sides. Each one cuts off far more
+     * than a search with a full window, and the table keeps what they found so the next one doesn't start over.
+     * The guess starts at the rating of the last depth searched with the same parity, which is usually close.
+     * @return the column of the best move, or -1 if the search was stopped
+     */
+    private int searchWithNullWindows() {
+        int lower = -RATING_INFINITY;
+        int upper = RATING_INFINITY;
+        int guess = mGuesses[mDepth & 1];
+        int move = -1;
+        while (lower < upper) {
+            int beta = guess == lower ? guess + 1 : guess;
+            mRootMove = -1;
+            guess = rateWithDepth(mPosition, RED, 0, beta - 1, beta);
+            if (mStopped) {
+                return -1;
             }
-            else if (player == YELLOW && BEST_MOVE_YELLOW_ONLY)    {
-                return max_rating;
+            if (guess < beta) {
+                upper = guess;
             }
-            else    {
-                if (YELLOW_WEIGHTING)    {
-                    float total = 0;
-                    float min = -VERY_NEGATIVE;
-                    int min_i = 0, base = 0;
-                    for (int n = count; n > 0; n--)    {
-
-                        for (int i = 0; i < n; i++) {
-                            if (ratings8[i] < min) {
-                                min = ratings8[i];
-                                min_i = i;
-                            }
-                        }
-                        base += (n);
-                        total += min*(n);
-                        for (int i = min_i; i < n-1; i++)
-                            ratings8[i] = ratings8[i+1];
-                        min = -VERY_NEGATIVE;
-                    }
-                    return total/((float)base);
-                }
-                else
-                    return rating/((float)count);
+            else {
+                //Only a search that failed high proves its best move is as good as the rating
+                lower = guess;
+                move = mRootMove;
             }
         }
-        else    {
-            if (redCanWin)    {
-                return RATING_FOUR_IN_A_ROW;
-            }
-            return 0;
+        mGuesses[mDepth & 1] = guess;
+        //Every search failed low when every move loses, then any of them will do
+        return move != -1 ? move : mRootMove;
+    }
+
+    /**
+     * Converts a rating to how it is kept in the tables. Wins are rated by how many moves they are from the
+     * position the search started at, but stored by how many moves they are from the position itself, so the
+     * entry is still right when the position comes up at another depth or in another search.
+     * @param score rating of the position
+     * @param depth how many moves the position is from the one the search started at
+     * @return the rating to store
+     */
+    private static int toTableScore(int score, int depth) {
+        if (score >= RATING_WIN_THRESHOLD) {
+            return score + depth;
+        }
+        if (score <= -RATING_WIN_THRESHOLD) {
+            return score - depth;
+        }
+        return score;
+    }
+
+    /**
+     * Converts a rating kept in the tables back, undoing toTableScore
+     * @param score rating that was stored
+     * @param depth how many moves the position is from the one the search started at
+     * @return the rating of the position
+     */
+    private static int fromTableScore(int score, int depth) {
+        if (score >= RATING_WIN_THRESHOLD) {
+            return score - depth;
+        }
+        if (score <= -RATING_WIN_THRESHOLD) {
+            return score + depth;
         }
+        return score;
     }
 
     /**
-     * Gets the next best move and returns the ratings for each move
-     * @param arg_board board being played on
+     * Gets the next best move and returns the ratings for each move. Only the best move's rating is exact,
+     * the others are upper bounds as the search stops once it knows a move can't beat the best one, unless
+     * mExactRatings is set and every move is searched with a full window.
+     * If the search is stopped, the best of the moves that were finished is returned.
+     * @param position position being searched, it is left unchanged
      * @param ratings array to store the ratings
-     * @return
+     * @return the column of the best move, or -1 if there are no moves or none was finished
      */
-    private int getNextMove(Connect4Model.Color arg_board[][], float ratings[])
+    private int getNextMove(Connect4Position position, int ratings[])
     {
-        Connect4Model.Color board[][] = new Connect4Model.Color[BOARD_X][BOARD_Y];
-        copyBoard(arg_board, board);
-        float rating = 0, max_rating = VERY_NEGATIVE;
+        int rating = 0, max_rating = -RATING_INFINITY;
         int max_rating_index = 0;
-        int y;
 
-        int count = 0;
-        for (int i = 0; i < BOARD_X; i++)    {
+        if (ratings != null) {
+            for (int i = 0; i < mWidth; i++)
+                ratings[i] = NO_RATING; //Full columns keep this rating
+        }
 
-            y = addBall(board, i, RED);
-            if (y == -1)    {//Full
-                if (ratings != null)
-                    ratings[i] = VERY_NEGATIVE;
+        //The best move of the last depth goes first, then the center columns
+        int moves[] = mMoves[0];
+        int count = mMoveOrder.order(position, RED, 0, mBestMove, moves);
+        //On a symmetric board, such as the empty one, only one of each move and its mirror image is searched
+        boolean symmetric = position.isSymmetric();
+        for (int n = 0; n < count; n++)    {
+            int i = moves[n];
+            if (symmetric && i > position.mirror(i)) {
                 continue;
             }
+            position.play(i, RED);
 
-            rating = rateWithDepth(board, YELLOW);
+            int alpha = mExactRatings ? -RATING_INFINITY : max_rating;
+            rating = -rateWithDepth(position, YELLOW, 1, -RATING_INFINITY, -alpha);
 
 
-            board[i][y] = EMPTY; //Remove Ball
+            position.undo(i); //Remove Ball
+            if (mStopped) {
+                break;
+            }
             if (rating > max_rating)    {
                 max_rating = rating;
                 max_rating_index = i;
             }
-            count++;
-            if (ratings != null)
+            if (ratings != null) {
                 ratings[i] = rating;
+                if (symmetric) {
+                    ratings[position.mirror(i)] = rating;
+                }
+            }
 
         }
 
 
 
-        if (count > 0)
+        if (max_rating > -RATING_INFINITY)
             return max_rating_index;
         else
             return -1; //No move
     }
 
-    private boolean isWithinBounds(Connect4Model.Color board[][], int x, int y) {
-        return (x >= 0 && y >= 0 && x < BOARD_X && y < BOARD_Y);
-    }
-
-    private void copyBoard(Connect4Model.Color source[][], Connect4Model.Color dest[][])
-    {
-        for (int i = 0; i < BOARD_X; i++)
-            for (int j = 0; j < BOARD_Y; j++)
-                dest[i][j] = source[i][j];
-    }
-
-    private int addBall(Connect4Model.Color board[][], int column, Connect4Model.Color color)//first column is 0
-    {
-        int i;
-        for (i = 0; i < BOARD_Y; i++)
-            if (board[column][i] == EMPTY)   {
-                board[column][i] = color;
-                return i;
-            }
-        return -1; //Error
-    }
-
 
 
 }
@@ -0,0 +1,175 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Totals of the search stats of every move made by the bots it is given to with Connect4Bot.setStats.
+ * Nothing is counted unless a bot has been given one, so the bot is no slower without it.
+ * Call register to watch the totals over JMX and startLogging to print them every so often.
+ */
+public class Connect4BotStats implements Connect4BotStatsMBean {
+
+    private final AtomicLong mMoves = new AtomicLong();
+    private final AtomicLong mSearchedMoves = new AtomicLong();
+    private final AtomicLong mBookMoves = new AtomicLong();
+    private final AtomicLong mSolverMoves = new AtomicLong();
+    private final AtomicLong mPonderHits = new AtomicLong();
+    private final AtomicLong mForcedMoves = new AtomicLong();
+    private final AtomicLong mNodes = new AtomicLong();
+    private final AtomicLong mTimeNanos = new AtomicLong();
+    //Depths of the searched moves added up, for the average
+    private final AtomicLong mDepths = new AtomicLong();
+    private final AtomicLong mTableProbes = new AtomicLong();
+    private final AtomicLong mTableHits = new AtomicLong();
+    private final AtomicLong mCutoffs = new AtomicLong();
+    private final AtomicLong mFirstMoveCutoffs = new AtomicLong();
+    private volatile int mLastDepth;
+
+    private ScheduledExecutorService mLogger = null;
+
+    /**
+     * Adds the stats of one move to the totals
+     * @param stats stats of the move
+     */
+    public void add(Connect4SearchStats stats) {
+        mMoves.incrementAndGet();
+        switch (stats.source) {
+            case BOOK:
+                mBookMoves.incrementAndGet();
+                break;
+            case SOLVER:
+                mSolverMoves.incrementAndGet();
+                break;
+            case PONDER:
+                mPonderHits.incrementAndGet();
+                break;
+            case FORCED:
+                mForcedMoves.incrementAndGet();
+                break;
+            default:
+                mSearchedMoves.incrementAndGet();
+                mDepths.addAndGet(stats.depth);
+                mLastDepth = stats.depth;
+                break;
+        }
+        mNodes.addAndGet(stats.nodes);
+        mTimeNanos.addAndGet(stats.timeNanos);
+        mTableProbes.addAndGet(stats.tableProbes);
+        mTableHits.addAndGet(stats.tableHits);
+        mCutoffs.addAndGet(stats.cutoffs);
+        mFirstMoveCutoffs.addAndGet(stats.firstMoveCutoffs);
+    }
+
+    /**
+     * Makes the totals visible over JMX
+     * @param name name to tell these totals apart from others, such as which bot they are for
+     * @throws JMException if they couldn't be registered, for example if the name is already taken
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("Connect4:type=BotStats,name=" + ObjectName.quote(name)));
+    }
+
+    /**
+     * Prints the totals to System.err every so often, until stopLogging is called
+     * @param periodMs time between each line in ms
+     */
+    public synchronized void startLogging(long periodMs) {
+        stopLogging();
+        mLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Connect4BotStats log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mLogger.scheduleAtFixedRate(() -> System.err.println(this), periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopLogging() {
+        if (mLogger != null) {
+            mLogger.shutdown();
+            mLogger = null;
+        }
+    }
+
+    @Override
+    public long getMoves() {
+        return mMoves.get();
+    }
+
+    @Override
+    public long getSearchedMoves() {
+        return mSearchedMoves.get();
+    }
+
+    @Override
+    public long getBookMoves() {
+        return mBookMoves.get();
+    }
+
+    @Override
+    public long getSolverMoves() {
+        return mSolverMoves.get();
+    }
+
+    @Override
+    public long getPonderHits() {
+        return mPonderHits.get();
+    }
+
+    @Override
+    public long getForcedMoves() {
+        return mForcedMoves.get();
+    }
+
+    @Override
+    public long getNodes() {
+        return mNodes.get();
+    }
+
+    @Override
+    public long getSearchTimeMillis() {
+        return mTimeNanos.get() / 1000000;
+    }
+
+    @Override
+    public double getNodesPerSecond() {
+        long time = mTimeNanos.get();
+        return time > 0 ? mNodes.get() * 1e9 / time : 0;
+    }
+
+    @Override
+    public double getAverageDepth() {
+        long moves = mSearchedMoves.get();
+        return moves > 0 ? mDepths.get() / (double) moves : 0;
+    }
+
+    @Override
+    public int getLastDepth() {
+        return mLastDepth;
+    }
+
+    @Override
+    public double getTableHitRate() {
+        long probes = mTableProbes.get();
+        return probes > 0 ? mTableHits.get() / (double) probes : 0;
+    }
+
+    @Override
+    public double getFirstMoveCutoffRate() {
+        long cutoffs = mCutoffs.get();
+        return cutoffs > 0 ? mFirstMoveCutoffs.get() / (double) cutoffs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d moves (%d searched, %d book, %d solver, %d pondered, %d forced), average depth %.1f, "
+                        + "%d nodes in %d ms (%.0f nodes/s), table hits %.1f%%, first move cut offs %.1f%%",
+                getMoves(), getSearchedMoves(), getBookMoves(), getSolverMoves(), getPonderHits(), getForcedMoves(),
+                getAverageDepth(), getNodes(), getSearchTimeMillis(), getNodesPerSecond(), getTableHitRate() * 100,
+                getFirstMoveCutoffRate() * 100);
+    }
+}
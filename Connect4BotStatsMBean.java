@@ -0,0 +1,31 @@
+/**
+ * The totals in Connect4BotStats that can be watched over JMX, with jconsole for example
+ */
+public interface Connect4BotStatsMBean {
+
+    long getMoves();
+
+    long getSearchedMoves();
+
+    long getBookMoves();
+
+    long getSolverMoves();
+
+    long getPonderHits();
+
+    long getForcedMoves();
+
+    long getNodes();
+
+    long getSearchTimeMillis();
+
+    double getNodesPerSecond();
+
+    double getAverageDepth();
+
+    int getLastDepth();
+
+    double getTableHitRate();
+
+    double getFirstMoveCutoffRate();
+}
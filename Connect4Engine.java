@@ -0,0 +1,31 @@
+/**
+ * Something that picks moves for one side of a game, so the game and the tournament can be played by either bot:
+ * Connect4Bot, which searches a few moves deep and rates the positions it reaches, or Connect4MCTSBot, which
+ * plays lots of quick random games from the position.
+ */
+public interface Connect4Engine {
+
+    /**
+     * Sets the color the bot plays as
+     * @param color the bot's color, YELLOW unless changed
+     */
+    void setColor(Connect4Model.Color color);
+
+    /**
+     * Sets the most time the bot will think for per move
+     * @param thinkingTime time in ms
+     */
+    void setThinkingTime(long thinkingTime);
+
+    /**
+     * Finds the bot's next move
+     * @param board current board, where it is the bot's turn
+     * @return the column of the move, from 0 - BOARD_WIDTH-1
+     */
+    int getNextMove(Connect4Model.Color board[][]);
+
+    /**
+     * @return how the last move was found and how much work it took
+     */
+    Connect4SearchStats getLastSearchStats();
+}
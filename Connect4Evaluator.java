@@ -0,0 +1,226 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a running rating of a board as balls are added and removed, so the bot doesn't have to scan the
+ * whole board at every position it searches. The board is split into every possible four in a row
+ * (the windows, 69 of them on a 7x6 board), and for each window it counts how many balls of each color are in it.
+ * A window holding only one color is worth RATING_THREE_IN_A_ROW or RATING_TWO_IN_A_ROW to that color
+ * when it has three or two of its balls (one or two short of a win when it takes more than four in a row),
+ * so adding a ball only has to update the windows through its spot.
+ */
+public class Connect4Evaluator {
+
+    //The window ratings only depend on how many in a row win, so evaluators share them
+    private static final Map<Integer, int[]> sWindowScores = new ConcurrentHashMap<>();
+
+    private final int mHeight;
+    private final int mMovesToWin;
+    private final int mWindowCount;
+    //Windows going through each spot, indexed by x*height + y
+    private final int mCellWindows[][];
+    //Rating for RED of a window holding r RED balls and y YELLOW balls, indexed by r*(mMovesToWin+1) + y
+    private final int mWindowScores[];
+
+    private byte mRedCounts[];
+    private byte mYellowCounts[];
+    private int mScore;
+    private int mRedFours;
+    private int mYellowFours;
+
+    public Connect4Evaluator() {
+        this(Connect4Rules.STANDARD);
+    }
+
+    /**
+     * @param rules size of the board and how many in a row win
+     */
+    public Connect4Evaluator(Connect4Rules rules) {
+        mHeight = rules.getHeight();
+        mMovesToWin = rules.getMovesToWin();
+        mWindowCount = rules.getWindowCount();
+        mCellWindows = rules.getCellWindows();
+
+        mWindowScores = sWindowScores.computeIfAbsent(mMovesToWin, Connect4Evaluator::createWindowScores);
+
+        mRedCounts = new byte[mWindowCount];
+        mYellowCounts = new byte[mWindowCount];
+    }
+
+    /**
+     * Empties the board
+     */
+    public void clear() {
+        for (int w = 0; w < mWindowCount; w++) {
+            mRedCounts[w] = 0;
+            mYellowCounts[w] = 0;
+        }
+        mScore = 0;
+        mRedFours = 0;
+        mYellowFours = 0;
+    }
+
+    /**
+     * Copies another evaluator into this one
+     * @param other evaluator to copy
+     */
+    public void copyFrom(Connect4Evaluator other) {
+        System.arraycopy(other.mRedCounts, 0, mRedCounts, 0, mWindowCount);
+        System.arraycopy(other.mYellowCounts, 0, mYellowCounts, 0, mWindowCount);
+        mScore = other.mScore;
+        mRedFours = other.mRedFours;
+        mYellowFours = other.mYellowFours;
+    }
+
+    /**
+     * Updates the rating for a ball placed at x, y
+     * @param x column of the ball
+     * @param y row of the ball
+     * @param color color of the ball
+     */
+    public void add(int x, int y, Connect4Model.Color color) {
+        int windows[] = mCellWindows[x * mHeight + y];
+        if (color == Connect4Model.Color.RED) {
+            for (int w : windows) {
+                int index = mRedCounts[w] * (mMovesToWin + 1) + mYellowCounts[w];
+                mScore += mWindowScores[index + mMovesToWin + 1] - mWindowScores[index];
+                if (++mRedCounts[w] == mMovesToWin) {
+                    mRedFours++;
+                }
+            }
+        }
+        else {
+            for (int w : windows) {
+                int index = mRedCounts[w] * (mMovesToWin + 1) + mYellowCounts[w];
+                mScore += mWindowScores[index + 1] - mWindowScores[index];
+                if (++mYellowCounts[w] == mMovesToWin) {
+                    mYellowFours++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the rating for a ball removed from x, y, undoing add(x, y, color)
+     * @param x column of the ball
+     * @param y row of the ball
+     * @param color color of the ball
+     */
+    public void remove(int x, int y, Connect4Model.Color color) {
+        int windows[] = mCellWindows[x * mHeight + y];
+        if (color == Connect4Model.Color.RED) {
+            for (int w : windows) {
+                if (mRedCounts[w]-- == mMovesToWin) {
+                    mRedFours--;
+                }
+                int index = mRedCounts[w] * (mMovesToWin + 1) + mYellowCounts[w];
+                mScore -= mWindowScores[index + mMovesToWin + 1] - mWindowScores[index];
+            }
+        }
+        else {
+            for (int w : windows) {
+                if (mYellowCounts[w]-- == mMovesToWin) {
+                    mYellowFours--;
+                }
+                int index = mRedCounts[w] * (mMovesToWin + 1) + mYellowCounts[w];
+                mScore -= mWindowScores[index + 1] - mWindowScores[index];
+            }
+        }
+    }
+
+    /**
+     * Gets the rating of the board, not counting fours in a row which are checked with hasFour
+     * @param color color to rate the board for
+     * @return the rating, positive if the board is good for color
+     */
+    public int getScore(Connect4Model.Color color) {
+        return color == Connect4Model.Color.RED ? mScore : -mScore;
+    }
+
+    /**
+     * Works out the rating the board would have with a ball at x, y, without placing it. This reads the same windows
+     * as add, but leaves the counts alone, so there is nothing to undo afterwards.
+     * @param x column of the spot
+     * @param y row of the spot, which should be empty
+     * @param color color of the ball, and color to rate the board for
+     * @return the rating, as getScore(color) would give after add(x, y, color)
+     */
+    public int getScoreAfter(int x, int y, Connect4Model.Color color) {
+        int score = mScore;
+        //Adding a RED ball moves a window's index up by a row of the table, a YELLOW ball by one
+        int step = color == Connect4Model.Color.RED ? mMovesToWin + 1 : 1;
+        for (int w : mCellWindows[x * mHeight + y]) {
+            int index = mRedCounts[w] * (mMovesToWin + 1) + mYellowCounts[w];
+            score += mWindowScores[index + step] - mWindowScores[index];
+        }
+        return color == Connect4Model.Color.RED ? score : -score;
+    }
+
+    /**
+     * Checks if there are four balls (or however many win) of the given color in a row anywhere on the board
+     * @param color color to check
+     * @return true if that color has won
+     */
+    public boolean hasFour(Connect4Model.Color color) {
+        return (color == Connect4Model.Color.RED ? mRedFours : mYellowFours) > 0;
+    }
+
+    /**
+     * Checks if a ball placed at x, y would make four in a row (or however many win), without placing it. Only the
+     * windows through the spot are looked at, so this is much faster than adding the ball and calling hasFour.
+     * @param x column of the spot
+     * @param y row of the spot, which should be empty
+     * @param color color of the ball
+     * @return true if the ball would win
+     */
+    public boolean isWinningSpot(int x, int y, Connect4Model.Color color) {
+        byte own[] = color == Connect4Model.Color.RED ? mRedCounts : mYellowCounts;
+        byte other[] = color == Connect4Model.Color.RED ? mYellowCounts : mRedCounts;
+        for (int w : mCellWindows[x * mHeight + y]) {
+            if (own[w] == mMovesToWin - 1 && other[w] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getWindowCount() {
+        return mWindowCount;
+    }
+
+    /**
+     * Works out the rating for RED of every window
+     * @param movesToWin how many in a row win
+     * @return the ratings, indexed by r*(movesToWin+1) + y for a window holding r RED balls and y YELLOW balls
+     */
+    private static int[] createWindowScores(int movesToWin) {
+        int three = Connect4Bot.RATING_THREE_IN_A_ROW;
+        int two = Connect4Bot.RATING_TWO_IN_A_ROW;
+        int scores[] = new int[(movesToWin + 1) * (movesToWin + 1)];
+        //An empty window is worth nothing to either player, even when two in a row wins and no balls is one short of
+        //two, so it is left at 0 instead of being rated for RED and then overwritten for YELLOW
+        for (int r = 1; r <= movesToWin; r++) {
+            scores[r * (movesToWin + 1)] = ratePieces(r, movesToWin, three, two);
+            scores[r] = -ratePieces(r, movesToWin, three, two);
+        }
+        return scores;
+    }
+
+    /**
+     * Rates a window holding only balls of one color
+     * @param pieces number of balls in the window
+     * @param movesToWin how many in a row win
+     * @param three rating of three balls
+     * @param two rating of two balls
+     * @return
+     */
+    private static int ratePieces(int pieces, int movesToWin, int three, int two) {
+        if (pieces == movesToWin - 1) {
+            return three;
+        }
+        if (pieces == movesToWin - 2) {
+            return two;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,614 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A bot that finds its moves with Monte Carlo tree search instead of rating positions like Connect4Bot. It plays
+ * lots of quick games (playouts) from the position, and grows a tree of the moves that do best in them: at each
+ * step down the tree it picks the move with the best UCT score, the share of games the move won plus a bonus for
+ * moves that haven't been tried much, so the good moves get looked at more and more closely. The playouts are
+ * random except that a player who can win does, and a player who has to block does.
+ * The move played is the one tried the most. It gets stronger the more playouts it has time for, so it can be
+ * given more time or threads where the heuristic of Connect4Bot would take too long to search deep enough.
+ * Each thread grows its own tree with its own random playouts, and their counts for each move are added up at
+ * the end, so the threads never wait on each other. Between moves each tree keeps the part below the move played
+ * and the other player's reply, so the playouts already done there count towards the next move.
+ * Like Connect4Bot, it thinks for at most setThinkingTime ms per move, and can be stopped earlier with
+ * setMaxPlayouts so games can be played quickly at a fixed strength.
+ */
+public class Connect4MCTSBot implements Connect4Engine {
+
+    private static final int BOT_THINKING_TIME = 2000;
+    //How much the UCT score favors moves that haven't been tried much over moves that won their playouts so far
+    private static final double EXPLORATION = 1.0;
+    //Nodes in each thread's tree to start with, the tree doubles in size as it needs up to MAX_TREE_SIZE. When it is
+    //full the leaves are still played out, but the tree stops growing.
+    private static final int TREE_SIZE = 1 << 14;
+    private static final int MAX_TREE_SIZE = 1 << 21;
+    //The clock is checked every this many playouts (plus one)
+    private static final int TIME_CHECK_MASK = 15;
+
+    //Results of playouts in half points, so a draw is a whole number
+    private static final int RESULT_WIN = 2;
+    private static final int RESULT_DRAW = 1;
+    private static final int RESULT_LOSS = 0;
+
+    //What the move into a node did to the game
+    private static final byte STATE_OPEN = 0;
+    private static final byte STATE_WON = 1;
+    private static final byte STATE_DRAWN = 2;
+
+    private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    public static final String NAME = "MCTS bot";
+
+    private final Connect4Rules mRules;
+    private final int mWidth;
+    //Playouts run straight on the bitboards when the board has them, as that skips keeping the rating up to date
+    private final boolean mBitboardPlayouts;
+    private final long mBottomMask;
+    private final long mBoardMask;
+
+    private Connect4Model.Color mColor = Connect4Model.Color.YELLOW;
+    private long mThinkingTime = BOT_THINKING_TIME;
+    private long mMaxPlayouts = 0;
+    private int mThreadCount = DEFAULT_THREAD_COUNT;
+
+    //One tree for each thread, the first is grown on the calling thread
+    private Tree mTrees[] = new Tree[0];
+    private Future<?> mTreeResults[] = new Future<?>[0];
+    private ExecutorService mPool = null;
+
+    private Connect4Position mPosition;
+    //Playouts through each column at the root, added up over the trees
+    private long mVisits[];
+    private Connect4SearchStats mLastStats = new Connect4SearchStats();
+
+    /**
+     * The nodes of a tree, kept in flat arrays so adding nodes creates no garbage until the arrays have to grow.
+     * A node's children are next to each other, from mFirstChild for mChildCount nodes.
+     */
+    private static class Nodes {
+        int mFirstChild[] = new int[TREE_SIZE];
+        byte mChildCount[] = new byte[TREE_SIZE];
+        //Column of the move into the node and what it did to the game
+        byte mMove[] = new byte[TREE_SIZE];
+        byte mState[] = new byte[TREE_SIZE];
+        int mVisits[] = new int[TREE_SIZE];
+        //Half points won in the playouts through the node, by the player who made the move into it
+        int mScores[] = new int[TREE_SIZE];
+
+        int getSize() {
+            return mVisits.length;
+        }
+
+        /**
+         * Makes room for at least size nodes, doubling the arrays until they fit
+         * @param size number of nodes needed
+         */
+        void grow(int size) {
+            int newSize = getSize();
+            while (newSize < size) {
+                newSize *= 2;
+            }
+            if (newSize == getSize()) {
+                return;
+            }
+            mFirstChild = Arrays.copyOf(mFirstChild, newSize);
+            mChildCount = Arrays.copyOf(mChildCount, newSize);
+            mMove = Arrays.copyOf(mMove, newSize);
+            mState = Arrays.copyOf(mState, newSize);
+            mVisits = Arrays.copyOf(mVisits, newSize);
+            mScores = Arrays.copyOf(mScores, newSize);
+        }
+    }
+
+    /**
+     * The tree grown by one thread, with everything it needs to run playouts on its own
+     */
+    private class Tree {
+        private Nodes mNodes = new Nodes();
+        //The nodes are copied here to keep part of the tree for the next move, and then the two are swapped
+        private Nodes mSpare = new Nodes();
+        //Node each copied node was copied from
+        private int mOrigin[] = new int[TREE_SIZE];
+        private int mNodeCount = 0;
+
+        //Position at the root of the tree, and the one walked down the tree and played out in each playout
+        private final Connect4Position mRootPosition = new Connect4Position(mRules);
+        private final Connect4Position mPlayout = new Connect4Position(mRules);
+        private Connect4Model.Color mRootColor;
+        //Nodes from the root down to the one being played out
+        private final int mPath[];
+        private final int mColumns[];
+        private long mSeed;
+
+        private long mPlayouts;
+        private long mMaxPlayouts;
+        private int mDepth;
+
+        Tree(long seed) {
+            mPath = new int[mRules.getSpots() + 1];
+            mColumns = new int[mWidth];
+            mSeed = seed | 1;
+        }
+
+        /**
+         * Moves the root of the tree to the position, keeping what is known about it if it is the root or up to
+         * two moves below it, and clearing the tree otherwise
+         * @param position position to search from
+         * @param color color of the player to move in it
+         */
+        void setRoot(Connect4Position position, Connect4Model.Color color) {
+            int root = mNodeCount > 0 && color == mRootColor ? findNode(position.getKey()) : -1;
+            if (root > 0) {
+                keepSubtree(root);
+            }
+            else if (root < 0) {
+                mNodeCount = 1;
+                clearNode(mNodes, 0);
+            }
+            mRootPosition.copyFrom(position);
+            mRootColor = color;
+            mPlayouts = 0;
+            mDepth = 0;
+        }
+
+        /**
+         * Runs playouts until the deadline is reached or mMaxPlayouts are done
+         * @param deadline time to stop at, from System.nanoTime
+         */
+        void search(long deadline) {
+            while (mMaxPlayouts == 0 || mPlayouts < mMaxPlayouts) {
+                playout();
+                if ((++mPlayouts & TIME_CHECK_MASK) == 0 && System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Walks down the tree to a leaf, adds its children, plays a game out from one of them and counts the
+         * result in every node on the way
+         */
+        private void playout() {
+            Nodes nodes = mNodes;
+            Connect4Position position = mPlayout;
+            position.copyFrom(mRootPosition);
+            Connect4Model.Color color = mRootColor;
+            int node = 0;
+            int length = 0;
+            mPath[length++] = node;
+
+            while (nodes.mFirstChild[node] != -1 && nodes.mState[node] == STATE_OPEN) {
+                node = select(nodes, node);
+                position.play(nodes.mMove[node], color);
+                color = other(color);
+                mPath[length++] = node;
+            }
+            //Leaves are only given children once they have been played out, so single playouts don't fill the tree
+            if (nodes.mState[node] == STATE_OPEN && (nodes.mVisits[node] > 0 || node == 0)
+                    && expand(nodes, node, position, color)) {
+                node = nodes.mFirstChild[node];
+                position.play(nodes.mMove[node], color);
+                color = other(color);
+                mPath[length++] = node;
+            }
+            mDepth = Math.max(mDepth, length - 1);
+
+            //Result for the player who made the move into node
+            int result;
+            if (nodes.mState[node] == STATE_WON) {
+                result = RESULT_WIN;
+            }
+            else if (nodes.mState[node] == STATE_DRAWN) {
+                result = RESULT_DRAW;
+            }
+            else {
+                result = RESULT_WIN - playOut(position, color);
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                node = mPath[i];
+                nodes.mVisits[node]++;
+                nodes.mScores[node] += result;
+                result = RESULT_WIN - result;
+            }
+        }
+
+        /**
+         * Picks the child to go down to, which is the first one not tried yet, or else the one with the best UCT score
+         * @param nodes nodes of the tree
+         * @param node node with children
+         * @return the child
+         */
+        private int select(Nodes nodes, int node) {
+            int first = nodes.mFirstChild[node];
+            int end = first + nodes.mChildCount[node];
+            double logVisits = Math.log(nodes.mVisits[node]);
+            int best = first;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < end; child++) {
+                int visits = nodes.mVisits[child];
+                if (visits == 0) {
+                    return child;
+                }
+                double score = nodes.mScores[child] / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Gives a node a child for every column that isn't full, starting in the middle
+         * @param nodes nodes of the tree
+         * @param node node to give children to
+         * @param position position at the node
+         * @param color color of the player to move in it
+         * @return false if the tree is too full to fit them
+         */
+        private boolean expand(Nodes nodes, int node, Connect4Position position, Connect4Model.Color color) {
+            if (mNodeCount + mWidth > nodes.getSize()) {
+                if (mNodeCount + mWidth > MAX_TREE_SIZE) {
+                    return false;
+                }
+                nodes.grow(mNodeCount + mWidth);
+            }
+            int first = mNodeCount;
+            int lastSpace = position.countSpacesLeft() == 1 ? 1 : 0;
+            for (int col : mRules.getCenterOrder()) {
+                if (!position.canPlay(col)) {
+                    continue;
+                }
+                int child = mNodeCount++;
+                clearNode(nodes, child);
+                nodes.mMove[child] = (byte) col;
+                if (position.isWinningMove(col, color)) {
+                    nodes.mState[child] = STATE_WON;
+                }
+                else if (lastSpace == 1) {
+                    nodes.mState[child] = STATE_DRAWN;
+                }
+            }
+            nodes.mFirstChild[node] = first;
+            nodes.mChildCount[node] = (byte) (mNodeCount - first);
+            return true;
+        }
+
+        /**
+         * Plays random moves until the game ends, except that a player who can win does, and a player who has to
+         * block the other player's win does
+         * @param position position to play from, it is left at the end of the game
+         * @param color color of the player to move
+         * @return RESULT_WIN, RESULT_DRAW or RESULT_LOSS for that player
+         */
+        private int playOut(Connect4Position position, Connect4Model.Color color) {
+            if (mBitboardPlayouts) {
+                return playOut(position.getMask(color), position.getMask(other(color)));
+            }
+            Connect4Model.Color player = color;
+            while (position.countSpacesLeft() > 0) {
+                if (position.getWinningMoves(color) != 0) {
+                    return color == player ? RESULT_WIN : RESULT_LOSS;
+                }
+                int threats = position.getWinningMoves(other(color));
+                int col;
+                if (threats != 0) {
+                    if (Integer.bitCount(threats) > 1) {
+                        //Only one of them can be blocked
+                        return color == player ? RESULT_LOSS : RESULT_WIN;
+                    }
+                    col = Integer.numberOfTrailingZeros(threats);
+                }
+                else {
+                    int count = 0;
+                    for (int i = 0; i < mWidth; i++) {
+                        if (position.canPlay(i)) {
+                            mColumns[count++] = i;
+                        }
+                    }
+                    col = mColumns[random(count)];
+                }
+                position.play(col, color);
+                color = other(color);
+            }
+            return RESULT_DRAW;
+        }
+
+        /**
+         * Plays a game out like playOut(position, color), straight on the bitboards
+         * @param own balls of the player to move
+         * @param opponent balls of the other player
+         * @return RESULT_WIN, RESULT_DRAW or RESULT_LOSS for the player to move
+         */
+        private int playOut(long own, long opponent) {
+            long mask = own | opponent;
+            boolean player = true;
+            while (true) {
+                //The lowest empty spot of every column that isn't full
+                long moves = (mask + mBottomMask) & mBoardMask;
+                if (moves == 0) {
+                    return RESULT_DRAW;
+                }
+                if ((mRules.getWinningSpots(own, mask) & moves) != 0) {
+                    return player ? RESULT_WIN : RESULT_LOSS;
+                }
+                long move = mRules.getWinningSpots(opponent, mask) & moves;
+                if (move != 0) {
+                    if ((move & (move - 1)) != 0) {
+                        return player ? RESULT_LOSS : RESULT_WIN;
+                    }
+                }
+                else {
+                    for (int i = random(Long.bitCount(moves)); i > 0; i--) {
+                        moves &= moves - 1;
+                    }
+                    move = moves & -moves;
+                }
+                own |= move;
+                mask |= move;
+                long next = opponent;
+                opponent = own;
+                own = next;
+                player = !player;
+            }
+        }
+
+        /**
+         * Looks for the node of a position at the root of the tree or up to two moves below it
+         * @param key key of the position
+         * @return the node, or -1 if it isn't there
+         */
+        private int findNode(long key) {
+            Nodes nodes = mNodes;
+            if (mRootPosition.getKey() == key) {
+                return 0;
+            }
+            Connect4Model.Color other = other(mRootColor);
+            int first = nodes.mFirstChild[0];
+            for (int child = first; first != -1 && child < first + nodes.mChildCount[0]; child++) {
+                if (nodes.mState[child] != STATE_OPEN) {
+                    continue;
+                }
+                mRootPosition.play(nodes.mMove[child], mRootColor);
+                int firstReply = nodes.mFirstChild[child];
+                for (int reply = firstReply; firstReply != -1 && reply < firstReply + nodes.mChildCount[child]; reply++) {
+                    mRootPosition.play(nodes.mMove[reply], other);
+                    boolean found = mRootPosition.getKey() == key;
+                    mRootPosition.undo(nodes.mMove[reply]);
+                    if (found) {
+                        mRootPosition.undo(nodes.mMove[child]);
+                        return reply;
+                    }
+                }
+                mRootPosition.undo(nodes.mMove[child]);
+            }
+            return -1;
+        }
+
+        /**
+         * Makes a node the root of the tree, copying it and everything below it to the start of the spare nodes
+         * and throwing away the rest
+         * @param root node to keep
+         */
+        private void keepSubtree(int root) {
+            Nodes from = mNodes;
+            Nodes to = mSpare;
+            //The kept nodes always fit in arrays as big as the ones they come from
+            to.grow(from.getSize());
+            if (mOrigin.length < from.getSize()) {
+                mOrigin = new int[from.getSize()];
+            }
+            mOrigin[0] = root;
+            int count = 1;
+            //Nodes are copied in the order they are reached, so the children of each node stay next to each other
+            for (int i = 0; i < count; i++) {
+                int node = mOrigin[i];
+                to.mChildCount[i] = from.mChildCount[node];
+                to.mMove[i] = from.mMove[node];
+                to.mState[i] = from.mState[node];
+                to.mVisits[i] = from.mVisits[node];
+                to.mScores[i] = from.mScores[node];
+                int first = from.mFirstChild[node];
+                to.mFirstChild[i] = first == -1 ? -1 : count;
+                for (int child = first; first != -1 && child < first + from.mChildCount[node]; child++) {
+                    mOrigin[count++] = child;
+                }
+            }
+            mSpare = from;
+            mNodes = to;
+            mNodeCount = count;
+        }
+
+        private void clearNode(Nodes nodes, int node) {
+            nodes.mFirstChild[node] = -1;
+            nodes.mChildCount[node] = 0;
+            nodes.mMove[node] = 0;
+            nodes.mState[node] = STATE_OPEN;
+            nodes.mVisits[node] = 0;
+            nodes.mScores[node] = 0;
+        }
+
+        //A xorshift random number generator, quicker than java.util.Random and just as good for playouts
+        private int random(int bound) {
+            mSeed ^= mSeed << 13;
+            mSeed ^= mSeed >>> 7;
+            mSeed ^= mSeed << 17;
+            return (int) ((mSeed >>> 33) % bound);
+        }
+    }
+
+    public Connect4MCTSBot() {
+        this(Connect4Rules.STANDARD);
+    }
+
+    /**
+     * @param rules board the bot plays on
+     */
+    public Connect4MCTSBot(Connect4Rules rules) {
+        mRules = rules;
+        mWidth = rules.getWidth();
+        mBitboardPlayouts = rules.hasBitboardWins();
+        long bottomMask = 0;
+        if (mBitboardPlayouts) {
+            for (int i = 0; i < mWidth; i++) {
+                bottomMask |= 1L << (i * (rules.getHeight() + 1));
+            }
+        }
+        mBottomMask = bottomMask;
+        mBoardMask = bottomMask * ((1L << rules.getHeight()) - 1);
+        mPosition = new Connect4Position(rules);
+        mVisits = new long[mWidth];
+    }
+
+    public Connect4Rules getRules() {
+        return mRules;
+    }
+
+    /**
+     * Sets how many threads play out games for each move
+     * @param threadCount number of threads, 1 plays them on the calling thread only
+     */
+    public void setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public void setThinkingTime(long thinkingTime) {
+        mThinkingTime = Math.max(1, thinkingTime);
+    }
+
+    public long getThinkingTime() {
+        return mThinkingTime;
+    }
+
+    /**
+     * Sets how many games the bot plays out at most per move, so it can stop before the thinking time is up
+     * @param maxPlayouts playouts on all threads together, 0 for no limit
+     */
+    public void setMaxPlayouts(long maxPlayouts) {
+        mMaxPlayouts = Math.max(0, maxPlayouts);
+    }
+
+    public long getMaxPlayouts() {
+        return mMaxPlayouts;
+    }
+
+    public void setColor(Connect4Model.Color color) {
+        mColor = color;
+    }
+
+    public Connect4Model.Color getColor() {
+        return mColor;
+    }
+
+    /**
+     * @return how the last move was found, where depth is the deepest the trees reached and nodes counts playouts
+     */
+    public Connect4SearchStats getLastSearchStats() {
+        return mLastStats;
+    }
+
+    /**
+     * Gets how many playouts went through each column at the root for the last move, on every thread
+     * @param visits filled with the count for each column, 0 for full columns
+     */
+    public void getLastVisits(long visits[]) {
+        System.arraycopy(mVisits, 0, visits, 0, mWidth);
+    }
+
+    /**
+     * Gets the next move as judged by the bot.
+     * @param board board being played on
+     * @return the column number of the move from 0 - the board's width
+     */
+    public int getNextMove(Connect4Model.Color board[][]) {
+
+        long start = System.nanoTime();
+        long nanos = mThinkingTime < Long.MAX_VALUE / 1000000 ? mThinkingTime * 1000000 : Long.MAX_VALUE;
+        long deadline = start + Math.min(nanos, Long.MAX_VALUE - start);
+        mPosition.set(board);
+        startTrees();
+
+        for (int i = 0; i < mTrees.length; i++) {
+            mTrees[i].setRoot(mPosition, mColor);
+            //The playouts are shared out so the total is mMaxPlayouts
+            mTrees[i].mMaxPlayouts = mMaxPlayouts == 0 ? 0
+                    : Math.max(1, (mMaxPlayouts + mTrees.length - 1 - i) / mTrees.length);
+        }
+        for (int i = 1; i < mTrees.length; i++) {
+            Tree tree = mTrees[i];
+            mTreeResults[i] = mPool.submit(() -> tree.search(deadline));
+        }
+        mTrees[0].search(deadline);
+        //The other trees stop at the deadline too, this only matters when the first tree hit mMaxPlayouts early
+        for (int i = 1; i < mTrees.length; i++) {
+            try {
+                mTreeResults[i].get();
+            } catch (Exception e) {
+                //Its playouts are lost but the other trees still count
+            }
+        }
+
+        Connect4SearchStats stats = new Connect4SearchStats();
+        for (int i = 0; i < mWidth; i++) {
+            mVisits[i] = 0;
+        }
+        for (Tree tree : mTrees) {
+            Nodes nodes = tree.mNodes;
+            int first = nodes.mFirstChild[0];
+            for (int child = first; first != -1 && child < first + nodes.mChildCount[0]; child++) {
+                mVisits[nodes.mMove[child]] += nodes.mVisits[child];
+            }
+            stats.nodes += tree.mPlayouts;
+            stats.depth = Math.max(stats.depth, tree.mDepth);
+        }
+
+        //Ties go to the column nearest the middle
+        int move = -1;
+        for (int col : mRules.getCenterOrder()) {
+            if (mPosition.canPlay(col) && (move == -1 || mVisits[col] > mVisits[move])) {
+                move = col;
+            }
+        }
+        stats.move = move;
+        stats.timeNanos = System.nanoTime() - start;
+        mLastStats = stats;
+        return move;
+    }
+
+    /**
+     * Makes a tree for each thread the first time, or when the number of threads changed
+     */
+    private void startTrees() {
+        if (mTrees.length == mThreadCount) {
+            return;
+        }
+        if (mPool != null) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        if (mThreadCount > 1) {
+            mPool = Executors.newFixedThreadPool(mThreadCount - 1, r -> {
+                Thread thread = new Thread(r, "Connect4MCTSBot worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        mTrees = new Tree[mThreadCount];
+        mTreeResults = new Future<?>[mThreadCount];
+        for (int i = 0; i < mThreadCount; i++) {
+            mTrees[i] = new Tree(System.nanoTime() * (2 * i + 1));
+        }
+    }
+
+    private static Connect4Model.Color other(Connect4Model.Color color) {
+        return color == Connect4Model.Color.RED ? Connect4Model.Color.YELLOW : Connect4Model.Color.RED;
+    }
+}
@@ -1,19 +1,84 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.Scanner;
+import javax.management.JMException;
 
 /**
 *  A basic command line implementation of ConnectFour. The game will alternate between the user and the bot until the game
-*  ends
+*  ends. If there is an opening book made by Connect4BookGenerator next to it, the bot will use it.
+*  Run it with "java Connect4Main -stats" to print how each of the bot's moves was found, and to watch the bot's
+*  totals over JMX (for example with jconsole).
+*  Run it with "java Connect4Main -cache" to keep what the bot works out in connect4.cache, so it is already known
+*  the next time. Run it with "java Connect4Main -mcts" to play Connect4MCTSBot instead, which finds its moves from
+*  random games played out rather than by searching with the usual bot's rating of positions.
+*  The options can be given together.
+*  To play on another board, give its width, height and how many in a row win, e.g. "java Connect4Main 8 7 5".
 */
 
 public class Connect4Main {
 
+    private static final String BOOK_FILE = "connect4.book";
+    private static final String STATS_OPTION = "-stats";
+    private static final String CACHE_OPTION = "-cache";
+    private static final String CACHE_FILE = "connect4.cache";
+    private static final String MCTS_OPTION = "-mcts";
+    private static final int TABLE_SIZE_MB = 64;
+    private static final int CACHE_SIZE_MB = 64;
 
     public static void main(String[] args) {
 
         Scanner input = new Scanner(System.in);
 
-        Connect4Model model = new Connect4Model();
-        Connect4Bot bot = new Connect4Bot();
+        boolean showStats = false;
+        boolean useCache = false;
+        boolean useMcts = false;
+        int sizeArg = 0;
+        for (; sizeArg < args.length && args[sizeArg].startsWith("-"); sizeArg++) {
+            showStats |= args[sizeArg].equals(STATS_OPTION);
+            useCache |= args[sizeArg].equals(CACHE_OPTION);
+            useMcts |= args[sizeArg].equals(MCTS_OPTION);
+        }
+        Connect4Rules rules = Connect4Rules.STANDARD;
+        if (args.length >= sizeArg + 3) {
+            try {
+                rules = Connect4Rules.get(Integer.parseInt(args[sizeArg]), Integer.parseInt(args[sizeArg + 1]),
+                        Integer.parseInt(args[sizeArg + 2]));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+        }
+
+        Connect4Model model = new Connect4Model(rules.getWidth(), rules.getHeight(), rules.getMovesToWin());
+        Connect4Bot bot = new Connect4Bot(rules, TABLE_SIZE_MB);
+        if (new File(BOOK_FILE).exists()) {
+            try {
+                bot.setOpeningBook(new Connect4Book(BOOK_FILE));
+            } catch (IOException e) {
+                System.out.println("Couldn't load the opening book: " + e.getMessage());
+            }
+        }
+        Connect4PersistentTable cache = null;
+        if (useCache) {
+            try {
+                cache = new Connect4PersistentTable(CACHE_FILE, rules, CACHE_SIZE_MB);
+                bot.setPersistentTable(cache);
+            } catch (IOException e) {
+                System.out.println("Couldn't open the cache: " + e.getMessage());
+            }
+        }
+        if (showStats) {
+            Connect4BotStats stats = new Connect4BotStats();
+            bot.setStats(stats);
+            try {
+                stats.register(Connect4Bot.NAME);
+            } catch (JMException e) {
+                System.out.println("Couldn't make the stats visible over JMX: " + e.getMessage());
+            }
+        }
+
+        //The book, cache and stats above are only used by Connect4Bot
+        Connect4Engine engine = useMcts ? new Connect4MCTSBot(rules) : bot;
 
         System.out.println("Welcome to the Connect 4 game. Here you will play against a bot.");
 
@@ -32,9 +97,16 @@ public class Connect4Main {
                 }
             }
             else {
-                int colNum = bot.getNextMove(model.getBoard());
+                int colNum = engine.getNextMove(model.getBoard());
+                if (showStats) {
+                    System.out.println(engine.getLastSearchStats());
+                }
                 model.addBall(colNum, Connect4Model.Color.YELLOW);
                 model.nextPlayerTurn(); 
+                //Keep thinking while waiting for the player's move
+                if (engine == bot) {
+                    bot.startPondering(model.getBoard());
+                }
                 
             }
             if (model.checkForWinner()) {
@@ -54,6 +126,10 @@ public class Connect4Main {
                 System.out.println("It's a tie!");
             }
         }
+        bot.stopPondering();
+        if (cache != null) {
+            cache.flush();
+        }
     }
     
 }
@@ -1,6 +1,9 @@
 /**
  * This is the model of the game, which basically contains all the data and logistics of the game. Place balls onto the board
  * with addBall and check for winners with checkForWinner
+ * Moves can be taken back with undo, and play(col) places the ball of whoever's turn it is, so the model can be used
+ * to walk through a game tree without copying the board. Neither creates any objects.
+ * The board is BOARD_WIDTH x BOARD_HEIGHT with MOVES_TO_WIN in a row to win unless other sizes are given when it is made.
  */
 public class Connect4Model {
     public enum Color {EMPTY, RED, YELLOW};
@@ -16,8 +19,23 @@ public class Connect4Model {
     private static final String DEFAULT_PLAYER_1_NAME = "Player 1";
     private static final String DEFAULT_PLAYER_2_NAME = "Player 2";
 
+    //Horizontally, vertically, diagonally right, diagonally left
+    private static final int DIRECTIONS[][] = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMovesToWin;
+
     private Color mBoard[][];
     private WinningMove mWinningMove = null;
+    //mWinningMove points at this when there is a winner, so checking doesn't create a new one every move
+    private WinningMove mWinningMoveStorage = new WinningMove();
+    private int mFilledCount = 0;
+    //The column of every ball placed so far, in order, mFilledCount long
+    private int mMoveHistory[];
+    private int mHeights[];
+    //Value of mFilledCount when a winner was scored, so undoing that ball takes the point back
+    private int mWinningMoveNumber = -1;
     private boolean mIsGameOver = false;
 
     private int mPlayer1Score;
@@ -26,6 +44,8 @@ public class Connect4Model {
     private String mPlayer2Name;
 
     private Point mLastPlacedBall = null;
+    //mLastPlacedBall points at this once a ball has been placed
+    private Point mLastPlacedBallStorage = new Point();
 
     private boolean mPlayerTurn;
 
@@ -60,10 +80,25 @@ public class Connect4Model {
     }
 
     public Connect4Model() {
+        this(BOARD_WIDTH, BOARD_HEIGHT, MOVES_TO_WIN);
+    }
+
+    /**
+     * @param width number of columns
+     * @param height number of rows
+     * @param movesToWin how many balls in a row win
+     */
+    public Connect4Model(int width, int height, int movesToWin) {
+
+        mWidth = width;
+        mHeight = height;
+        mMovesToWin = movesToWin;
+        mMoveHistory = new int[width * height];
+        mHeights = new int[width];
 
-        mBoard = new Color[BOARD_WIDTH][BOARD_HEIGHT];
-        for (int i = 0; i < BOARD_WIDTH; i++) {
-            for (int j = 0; j < BOARD_HEIGHT; j++) {
+        mBoard = new Color[mWidth][mHeight];
+        for (int i = 0; i < mWidth; i++) {
+            for (int j = 0; j < mHeight; j++) {
                 mBoard[i][j] = Color.EMPTY;
             }
         }
@@ -77,13 +112,13 @@ public class Connect4Model {
     public void displayBoard()
     {
         System.out.print("\nBoard\n"); 
-        for (int i = 1; i <= BOARD_WIDTH; i++) {
+        for (int i = 1; i <= mWidth; i++) {
             System.out.print(i);
             System.out.print(" ");  
         }  
         System.out.print("\n");
-        for (int i = BOARD_HEIGHT-1; i >= 0; i--)    {
-            for (int j = 0; j < BOARD_WIDTH; j++)    {
+        for (int i = mHeight-1; i >= 0; i--)    {
+            for (int j = 0; j < mWidth; j++)    {
                 if (mBoard[j][i] == Color.EMPTY)
                     System.out.print("- ");
                 else if (mBoard[j][i] == Color.RED)
@@ -97,6 +132,18 @@ public class Connect4Model {
         System.out.print("\n");
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getMovesToWin() {
+        return mMovesToWin;
+    }
+
     public Point getLastPlacedBall() {
         return mLastPlacedBall;
     }
@@ -153,158 +200,120 @@ public class Connect4Model {
      */
     public int addBall(int col, Color color)//first column is 0
     {
-        for (int i = 0; i < BOARD_HEIGHT; i++) {
-            if (mBoard[col][i] == Color.EMPTY) {
-                mBoard[col][i] = color;
-                mLastPlacedBall = new Point();
-                mLastPlacedBall.set(col, i);
-                return i;
-            }
+        int i = mHeights[col];
+        if (i >= mHeight) {
+            return -1; //Error
         }
-        return -1; //Error
+        mBoard[col][i] = color;
+        mHeights[col] = i + 1;
+        mMoveHistory[mFilledCount++] = col;
+        mLastPlacedBall = mLastPlacedBallStorage;
+        mLastPlacedBall.set(col, i);
+        return i;
     }
 
     /**
-     * Checks the board to see if there's a winner. i.e 4 balls placed in a row
-     * It then stores the boolean which can be accessed with hasWinner()
-     * and the winning move with getWinningMove()
-     * @return whether there is a winner
+     * Adds the ball of the player whose turn it is to the column and passes the turn on
+     * @param col column number, goes from 0 - BOARD_WIDTH-1
+     * @return the row it was placed in, or -1 if the column is full
      */
-    public boolean checkForWinner()
-    {
-        int count;
-        Color precolor;
-
-        mWinningMove = new WinningMove();
-
-        //Checks in all possible 4 directions, horizontally, vertically, diagonally right, diagonally left
-
-        //Check horizontally
-        precolor = Color.EMPTY; count = 0;
-        for (int i = 0; i < BOARD_HEIGHT; i++)    {
-            for (int j = 0; j < BOARD_WIDTH; j++)    {
-                if (mBoard[j][i] == precolor && mBoard[j][i] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(j, i, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(j, i);
-                }
-                precolor = mBoard[j][i];
-            }
-            precolor = Color.EMPTY;
-            count = 0;
+    public int play(int col) {
+        int row = addBall(col, mPlayerTurn == PLAYER_1 ? Color.RED : Color.YELLOW);
+        if (row != -1) {
+            nextPlayerTurn();
         }
+        return row;
+    }
 
-        //Check vertically
-        precolor = Color.EMPTY; count = 0;
-        for (int j = 0; j < BOARD_WIDTH; j++)    {
-            for (int i = 0; i < BOARD_HEIGHT; i++)    {
-                if (mBoard[j][i] == precolor && mBoard[j][i] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(j, i, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(j, i);
-                }
-                precolor = mBoard[j][i];
-            }
-            precolor = Color.EMPTY;
-            count = 0;
+    /**
+     * Takes back the last ball placed. It becomes the turn of the player who placed it, and if it won the game
+     * the game is no longer over and the point for it is taken back.
+     * @return the column the ball was in, or -1 if the board is empty
+     */
+    public int undo() {
+        if (mFilledCount == 0) {
+            return -1;
         }
 
+        if (mFilledCount == mWinningMoveNumber) {
+            if (mWinningMoveStorage.winner == Color.RED) {
+                mPlayer1Score--;
+            } else {
+                mPlayer2Score--;
+            }
+            mWinningMoveNumber = -1;
+        }
+        mWinningMove = null;
+        mIsGameOver = false;
 
+        int col = mMoveHistory[--mFilledCount];
+        int row = --mHeights[col];
+        mPlayerTurn = mBoard[col][row] == Color.RED ? PLAYER_1 : PLAYER_2;
+        mBoard[col][row] = Color.EMPTY;
 
-        //Check diagonally to the right
-        precolor = Color.EMPTY; count = 0;
-        for (int i = BOARD_HEIGHT-1; i >= 0; i--)    {
-            for (int j = 0; (j < BOARD_WIDTH && (i+j) < BOARD_HEIGHT); j++)    {
-                if (mBoard[j][i+j] == precolor && mBoard[j][i+j] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(j, i+j, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(j, i+j);
-                }
-                precolor = mBoard[j][i+j];
-            }
-            precolor = Color.EMPTY;
-            count = 0;
+        if (mFilledCount == 0) {
+            mLastPlacedBall = null;
         }
-        precolor = Color.EMPTY; count = 0;
-        for (int j = 1; j < BOARD_WIDTH; j++)    {
-            for (int i = 0; (i < BOARD_HEIGHT && (i+j) < BOARD_WIDTH); i++)    {
-                if (mBoard[j+i][i] == precolor && mBoard[j+i][i] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(j+i, i, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(j+i, i);
-                }
-                precolor = mBoard[j+i][i];
-            }
-            precolor = Color.EMPTY;
-            count = 0;
+        else {
+            int lastCol = mMoveHistory[mFilledCount - 1];
+            mLastPlacedBall.set(lastCol, mHeights[lastCol] - 1);
         }
+        return col;
+    }
 
-        //Check diagonally to the left
-        precolor = Color.EMPTY; count = 0;
-        for (int i = BOARD_HEIGHT-1; i >= 0; i--)    {
-            for (int j = 0; (j < BOARD_WIDTH && (i+j) < BOARD_HEIGHT); j++)    {
-                if (mBoard[BOARD_WIDTH-1-j][i+j] == precolor && mBoard[BOARD_WIDTH-1-j][i+j] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(BOARD_WIDTH-1-j, i+j, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(BOARD_WIDTH-1-j, i+j);
-                }
-                precolor = mBoard[BOARD_WIDTH-1-j][i+j];
-            }
-            count = 0;
-            precolor = Color.EMPTY;
-        }
-        precolor = Color.EMPTY; count = 0;
-        for (int j = BOARD_WIDTH-2; j >= 0; j--)    {
-            for (int i = 0; (i < BOARD_HEIGHT && (j-i) >= 0); i++)    {
-                if (mBoard[j-i][i] == precolor && mBoard[j-i][i] != Color.EMPTY) {
-                    count++;
-                    if (count >= MOVES_TO_WIN-1) {
-                        setupWinningMove(j-i, i, precolor);
-                        return true;
-                    }
-                }
-                else {
-                    count = 0;
-                    mWinningMove.startPos.set(j-i, i);
+    public boolean canPlay(int col) {
+        return mHeights[col] < mHeight;
+    }
+
+    public int getHeight(int col) {
+        return mHeights[col];
+    }
+
+    public int getMoveCount() {
+        return mFilledCount;
+    }
+
+    /**
+     * @param i number of the move, from 0 - getMoveCount()-1
+     * @return the column of the i'th ball placed
+     */
+    public int getMove(int i) {
+        return mMoveHistory[i];
+    }
+
+    /**
+     * Checks the board to see if there's a winner. i.e 4 balls placed in a row
+     * It then stores the boolean which can be accessed with hasWinner()
+     * and the winning move with getWinningMove()
+     * Only the lines through the last placed ball can have changed since the last check, so only those are
+     * looked at. Call this after every ball is added.
+     * @return whether there is a winner
+     */
+    public boolean checkForWinner()
+    {
+        mWinningMove = null;
+
+        if (mLastPlacedBall != null) {
+            int x = mLastPlacedBall.x;
+            int y = mLastPlacedBall.y;
+            Color color = mBoard[x][y];
+
+            //Checks in all possible 4 directions, horizontally, vertically, diagonally right, diagonally left
+            for (int d = 0; d < DIRECTIONS.length; d++) {
+                int dirx = DIRECTIONS[d][0];
+                int diry = DIRECTIONS[d][1];
+
+                int back = countInDirection(x, y, -dirx, -diry, color);
+                int forward = countInDirection(x, y, dirx, diry, color);
+                if (back + forward + 1 >= mMovesToWin) {
+                    mWinningMove = mWinningMoveStorage;
+                    mWinningMove.startPos.set(x - back * dirx, y - back * diry);
+                    setupWinningMove(x + forward * dirx, y + forward * diry, color);
+                    return true;
                 }
-                precolor = mBoard[j-i][i];
             }
-            precolor = Color.EMPTY;
-            count = 0;
         }
 
-        mWinningMove = null;
-
         if (isBoardFull()) {
             mIsGameOver = true;
             return true;
@@ -315,6 +324,27 @@ public class Connect4Model {
 
     }
 
+    /**
+     * Counts the balls of a color in a row starting next to x, y
+     * @param x x coordinate to start from
+     * @param y y coordinate to start from
+     * @param dirx X coordinate of direction vector
+     * @param diry Y coordinate of direction vector
+     * @param color color of the balls
+     * @return number of balls, not counting the one at x, y
+     */
+    private int countInDirection(int x, int y, int dirx, int diry, Color color) {
+        int count = 0;
+        x += dirx;
+        y += diry;
+        while (x >= 0 && y >= 0 && x < mWidth && y < mHeight && mBoard[x][y] == color) {
+            count++;
+            x += dirx;
+            y += diry;
+        }
+        return count;
+    }
+
     /**
      * Completes the winning move object mWinningMove
      * @param x x coordinate of the endPos
@@ -324,7 +354,9 @@ public class Connect4Model {
     private void setupWinningMove(int x, int y, Color winner) {
 
         mWinningMove.endPos.set(x, y);
+        mWinningMove.winner = winner;
         mIsGameOver = true;
+        mWinningMoveNumber = mFilledCount;
         if (winner == Color.RED) {
             mPlayer1Score++;
         } else {
@@ -337,16 +369,7 @@ public class Connect4Model {
      * @return true if it is full
      */
     public boolean isBoardFull() {
-
-        for (int i = 0; i < BOARD_WIDTH; i++) {
-            for (int j = 0; j < BOARD_HEIGHT; j++) {
-                if (mBoard[i][j] == Color.EMPTY) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return mFilledCount == mWidth * mHeight;
     }
 
     /**
@@ -354,14 +377,19 @@ public class Connect4Model {
      */
     public void reset() {
 
-        for (int i = 0; i < BOARD_WIDTH; i++) {
-            for (int j = 0; j < BOARD_HEIGHT; j++) {
+        for (int i = 0; i < mWidth; i++) {
+            for (int j = 0; j < mHeight; j++) {
                 mBoard[i][j] = Color.EMPTY;
             }
         }
 
         mWinningMove = null;
         mIsGameOver = false;
+        mFilledCount = 0;
+        mWinningMoveNumber = -1;
+        for (int i = 0; i < mWidth; i++) {
+            mHeights[i] = 0;
+        }
 
         //Swaps player turns every time it is reset
         if ((mPlayer1Score + mPlayer2Score) % 2 == 0) {
@@ -0,0 +1,154 @@
+/**
+ * Decides which order the bot tries moves in. Alpha-beta pruning cuts off the most when the best move is
+ * tried first, so moves are tried in this order:
+ * the best move remembered for the position, then the killer moves (moves that caused a cut off at the same
+ * depth elsewhere in the tree), then the rest by their history (how often playing that spot caused a cut off),
+ * with the center columns first when nothing else tells them apart.
+ * Each bot thread has its own Connect4MoveOrder, as the killer and history tables change during the search.
+ */
+public class Connect4MoveOrder {
+
+    private static final int NO_MOVE = -1;
+    private static final int SCORE_FIRST = Integer.MAX_VALUE;
+    private static final int SCORE_KILLER = Integer.MAX_VALUE - 2;
+
+    private final int mHeight;
+    private final int mMaxDepth;
+    //Columns from the center out
+    private final int mCenterOrder[];
+
+    private int mKillers[][];
+    //Indexed by player and then by spot x*height + y
+    private int mHistory[][];
+    private int mScores[][];
+
+    private long mCutoffs;
+    private long mFirstMoveCutoffs;
+
+    public Connect4MoveOrder() {
+        this(Connect4Rules.STANDARD);
+    }
+
+    /**
+     * @param rules size of the board and how many in a row win
+     */
+    public Connect4MoveOrder(Connect4Rules rules) {
+        mHeight = rules.getHeight();
+        mMaxDepth = rules.getSpots() + 2;
+        mCenterOrder = rules.getCenterOrder();
+        mKillers = new int[mMaxDepth][2];
+        mHistory = new int[2][rules.getSpots()];
+        mScores = new int[mMaxDepth][rules.getWidth()];
+        newSearch();
+    }
+
+    /**
+     * Prepares for a new search. Killer moves are forgotten and the history is halved so it
+     * leans towards the latest positions.
+     */
+    public void newSearch() {
+        for (int d = 0; d < mMaxDepth; d++) {
+            mKillers[d][0] = NO_MOVE;
+            mKillers[d][1] = NO_MOVE;
+        }
+        for (int p = 0; p < 2; p++) {
+            for (int c = 0; c < mHistory[p].length; c++) {
+                mHistory[p][c] /= 2;
+            }
+        }
+        mCutoffs = 0;
+        mFirstMoveCutoffs = 0;
+    }
+
+    /**
+     * Fills moves with the columns that can be played, best first
+     * @param position position being searched
+     * @param player current player's turn
+     * @param depth how many moves have been looked ahead so far
+     * @param firstMove move to try before any other, such as the best move remembered for the position, or -1
+     * @param moves array of at least BOARD_WIDTH to fill
+     * @return the number of moves
+     */
+    public int order(Connect4Position position, Connect4Model.Color player, int depth, int firstMove, int moves[]) {
+        int scores[] = mScores[depth];
+        int history[] = mHistory[player == Connect4Model.Color.RED ? 0 : 1];
+        int killers[] = mKillers[depth];
+        int count = 0;
+
+        for (int n = 0; n < mCenterOrder.length; n++) {
+            int col = mCenterOrder[n];
+            if (!position.canPlay(col)) {
+                continue;
+            }
+            int score;
+            if (col == firstMove) {
+                score = SCORE_FIRST;
+            }
+            else if (col == killers[0]) {
+                score = SCORE_KILLER;
+            }
+            else if (col == killers[1]) {
+                score = SCORE_KILLER - 1;
+            }
+            else {
+                score = history[col * mHeight + position.getHeight(col)];
+            }
+
+            //Insertion sort, a move only passes the ones with lower scores so ties stay center first
+            int i = count++;
+            while (i > 0 && scores[i - 1] < score) {
+                scores[i] = scores[i - 1];
+                moves[i] = moves[i - 1];
+                i--;
+            }
+            scores[i] = score;
+            moves[i] = col;
+        }
+        return count;
+    }
+
+    /**
+     * Records that a move caused a cut off, so it is tried earlier next time
+     * @param position position being searched, with the move already taken back
+     * @param player player who made the move
+     * @param depth how many moves have been looked ahead so far
+     * @param col column of the move
+     * @param index where the move was in the order it was tried
+     * @param remaining how many moves deep the move was searched
+     */
+    public void cutoff(Connect4Position position, Connect4Model.Color player, int depth, int col, int index, int remaining) {
+        mCutoffs++;
+        if (index == 0) {
+            mFirstMoveCutoffs++;
+        }
+
+        int killers[] = mKillers[depth];
+        if (killers[0] != col) {
+            killers[1] = killers[0];
+            killers[0] = col;
+        }
+
+        //Cut offs far from the leaves save the most work, so they count the most
+        int history[] = mHistory[player == Connect4Model.Color.RED ? 0 : 1];
+        history[col * mHeight + position.getHeight(col)] += remaining * remaining;
+    }
+
+    public long getCutoffs() {
+        return mCutoffs;
+    }
+
+    public long getFirstMoveCutoffs() {
+        return mFirstMoveCutoffs;
+    }
+
+    /**
+     * Gets how often the first move tried caused the cut off, which is how close the order is to perfect
+     * @return the fraction of cut offs caused by the first move, from 0 - 1
+     */
+    public float getFirstMoveCutoffRate() {
+        if (mCutoffs == 0) {
+            return 0;
+        }
+        return mFirstMoveCutoffs / (float) mCutoffs;
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * A table of searched positions kept in a file, so what the bot works out in one run is still there in the
+ * next. It works like Connect4TranspositionTable, but only holds the positions near the top of the search,
+ * which took the most work to rate and are the most likely to come up again.
+ * The file is memory mapped, so results are read and written at the speed of memory and the operating system
+ * writes them out in the background. Several processes can use the same file at once: the header is only
+ * made and checked while holding a lock on the file, and entries are stored like in the transposition table,
+ * with the key xor'ed with the data, so an entry half written by another process just doesn't match any key.
+ * The file starts with a header (FILE_MAGIC, FORMAT_VERSION, board width, board height, how many in a row win,
+ * a spare int and number of entries), followed by two longs per entry, the key xor'ed with the data and the
+ * data packed as in the transposition table. A file made by another version of the bot or for another board
+ * can't be opened, as its ratings wouldn't mean the same thing.
+ */
+public class Connect4PersistentTable {
+
+    public static final int FILE_MAGIC = 0x43345031; //"C4P1"
+    //Changes whenever the meaning of the stored ratings changes, so old files aren't trusted
+    public static final int FORMAT_VERSION = 2;
+    public static final int HEADER_BYTES = 32;
+
+    private static final int ENTRY_BYTES = 16;
+
+    private final Connect4Rules mRules;
+    private final MappedByteBuffer mBuffer;
+    //Key xor data at 2*i and data at 2*i + 1 for entry i
+    private final LongBuffer mEntries;
+    private final int mIndexBits;
+
+    /**
+     * Opens the table in a file, making it if the file doesn't exist or is empty
+     * @param path path of the file
+     * @param rules board the positions are on
+     * @param sizeMb size of a new file in megabytes, rounded down to a power of two number of entries.
+     *               An existing file keeps the size it was made with.
+     * @throws IOException if the file can't be read or written, or holds a table from another version or board
+     */
+    public Connect4PersistentTable(String path, Connect4Rules rules, int sizeMb) throws IOException {
+        mRules = rules;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw");
+             FileChannel channel = file.getChannel()) {
+
+            long count;
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() == 0) {
+                    long entries = Math.max(2, (long) sizeMb * 1024 * 1024 / ENTRY_BYTES);
+                    count = 1L << Math.min(63 - Long.numberOfLeadingZeros(entries), 26);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(FILE_MAGIC).putInt(FORMAT_VERSION).putInt(rules.getWidth()).putInt(rules.getHeight())
+                            .putInt(rules.getMovesToWin()).putInt(0).putLong(count);
+                    header.flip();
+                    channel.write(header, 0);
+                    file.setLength(HEADER_BYTES + count * ENTRY_BYTES);
+                }
+                else {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    if (channel.read(header, 0) < HEADER_BYTES || header.getInt(0) != FILE_MAGIC) {
+                        throw new IOException(path + " is not a table of searched positions");
+                    }
+                    if (header.getInt(4) != FORMAT_VERSION) {
+                        throw new IOException(path + " was made by another version of the bot");
+                    }
+                    if (header.getInt(8) != rules.getWidth() || header.getInt(12) != rules.getHeight()
+                            || header.getInt(16) != rules.getMovesToWin()) {
+                        throw new IOException(path + " is for a " + header.getInt(8) + "x" + header.getInt(12)
+                                + " board with " + header.getInt(16) + " in a row, not " + rules);
+                    }
+                    count = header.getLong(24);
+                    if (count < 2 || Long.bitCount(count) != 1 || HEADER_BYTES + count * ENTRY_BYTES > channel.size()) {
+                        throw new IOException(path + " is cut short");
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+
+            //The mapping stays valid after the file is closed
+            mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + count * ENTRY_BYTES);
+            mBuffer.position(HEADER_BYTES);
+            mEntries = mBuffer.slice().asLongBuffer();
+            mIndexBits = Long.numberOfTrailingZeros(count);
+        }
+    }
+
+    public Connect4Rules getRules() {
+        return mRules;
+    }
+
+    /**
+     * Looks up a position
+     * @param key key of the position
+     * @return the packed data stored for it, to be read with Connect4TranspositionTable.getScore, getDepth,
+     * getBound and getMove, or 0 if the position isn't in the table
+     */
+    public long probe(long key) {
+        int i = index(key);
+        long data = mEntries.get(i + 1);
+        if (data != 0 && (mEntries.get(i) ^ data) == key) {
+            return data;
+        }
+        return 0;
+    }
+
+    /**
+     * Stores the result of searching a position, unless the entry already holds a deeper one
+     * @param key key of the position
+     * @param score rating found for the position
+     * @param depth how many moves deep the position was searched
+     * @param bound BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+     * @param move best move found, or NO_MOVE
+     */
+    public void store(long key, int score, int depth, int bound, int move) {
+        int i = index(key);
+        long old = mEntries.get(i + 1);
+        if (old != 0 && Connect4TranspositionTable.getDepth(old) > depth) {
+            return;
+        }
+        //Entries don't age like in the transposition table, a deep result is worth keeping however old it is
+        long data = Connect4TranspositionTable.pack(score, depth, bound, move, 0);
+        mEntries.put(i, key ^ data);
+        mEntries.put(i + 1, data);
+    }
+
+    /**
+     * Writes everything stored so far out to the disk. Other processes see stored results straight away,
+     * this only matters if the computer stops before the operating system gets around to writing them.
+     */
+    public void flush() {
+        mBuffer.force();
+    }
+
+    public int getSize() {
+        return 1 << mIndexBits;
+    }
+
+    //Index of the first of the entry's two longs
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - mIndexBits)) << 1;
+    }
+}
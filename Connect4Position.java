@@ -0,0 +1,419 @@
+/**
+ * A compact bitboard representation of a board used by the bot while searching. Every column takes
+ * BOARD_HEIGHT+1 bits (the extra bit on top keeps the columns apart), so the spot (x, y) is the bit
+ * x*(BOARD_HEIGHT+1) + y of the mask of the color occupying it. A 7x6 board fits in 49 bits.
+ * Boards too big for 64 bits keep their balls in an array instead, and their key is a Zobrist hash (the random
+ * keys of every ball xor'ed together) rather than being worked out from the bitboards.
+ * The position keeps its mirror image (the board flipped left to right) up to date too, so a position and its
+ * mirror can share one key, see getCanonicalKey.
+ * Convert the model's board once with set(board) and then use play and undo to walk the game tree.
+ * The position also keeps a Connect4Evaluator up to date, so its rating is ready at every step.
+ */
+public class Connect4Position {
+
+    //Balls in mCells when the board is too big for bitboards
+    private static final byte CELL_EMPTY = 0;
+    private static final byte CELL_RED = 1;
+    private static final byte CELL_YELLOW = 2;
+
+    private final Connect4Rules mRules;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumnBits;
+    private final boolean mBitboard;
+    //Wins are found with shifts of the bitboards when the board allows it, otherwise through the evaluator
+    private final boolean mBitboardWins;
+    private final long mBottomMask;
+    private final long mZobristKeys[];
+
+    private long mRedMask;
+    private long mYellowMask;
+    private long mMirrorRedMask;
+    private long mMirrorYellowMask;
+    //Only used when the board is too big for bitboards
+    private byte mCells[];
+    private long mHash;
+    private long mMirrorHash;
+    private int mHeights[];
+    private int mMoveCount;
+    private Connect4Evaluator mEvaluator;
+
+    public Connect4Position() {
+        this(Connect4Rules.STANDARD);
+    }
+
+    public Connect4Position(Connect4Model.Color board[][]) {
+        this(Connect4Rules.STANDARD);
+        set(board);
+    }
+
+    /**
+     * @param rules size of the board and how many in a row win
+     */
+    public Connect4Position(Connect4Rules rules) {
+        mRules = rules;
+        mWidth = rules.getWidth();
+        mHeight = rules.getHeight();
+        mColumnBits = mHeight + 1;
+        mBitboard = rules.isBitboard();
+        mBitboardWins = rules.hasBitboardWins();
+        mZobristKeys = rules.getZobristKeys();
+        long bottomMask = 0;
+        if (mBitboard) {
+            for (int i = 0; i < mWidth; i++) {
+                bottomMask |= bit(i, 0);
+            }
+        }
+        else {
+            mCells = new byte[mWidth * mHeight];
+        }
+        mBottomMask = bottomMask;
+        mHeights = new int[mWidth];
+        mEvaluator = new Connect4Evaluator(rules);
+    }
+
+    public Connect4Rules getRules() {
+        return mRules;
+    }
+
+    /**
+     * Sets this position to match the model's board
+     * @param board board being played on
+     */
+    public void set(Connect4Model.Color board[][]) {
+        set(board, false);
+    }
+
+    /**
+     * Sets this position to match the model's board
+     * @param board board being played on
+     * @param swapColors true to swap RED and YELLOW balls
+     */
+    public void set(Connect4Model.Color board[][], boolean swapColors) {
+        Connect4Model.Color red = swapColors ? Connect4Model.Color.YELLOW : Connect4Model.Color.RED;
+        mRedMask = 0;
+        mYellowMask = 0;
+        mMirrorRedMask = 0;
+        mMirrorYellowMask = 0;
+        mHash = 0;
+        mMirrorHash = 0;
+        mMoveCount = 0;
+        mEvaluator.clear();
+        for (int i = 0; i < mWidth; i++) {
+            mHeights[i] = 0;
+            for (int j = 0; j < mHeight; j++) {
+                if (board[i][j] == Connect4Model.Color.EMPTY) {
+                    if (!mBitboard) {
+                        mCells[i * mHeight + j] = CELL_EMPTY;
+                    }
+                    continue;
+                }
+                Connect4Model.Color color = board[i][j] == red ? Connect4Model.Color.RED : Connect4Model.Color.YELLOW;
+                place(i, j, color);
+                mEvaluator.add(i, j, color);
+                mHeights[i] = j + 1;
+                mMoveCount++;
+            }
+        }
+    }
+
+    /**
+     * Copies another position into this one
+     * @param other position to copy
+     */
+    public void copyFrom(Connect4Position other) {
+        mRedMask = other.mRedMask;
+        mYellowMask = other.mYellowMask;
+        mMirrorRedMask = other.mMirrorRedMask;
+        mMirrorYellowMask = other.mMirrorYellowMask;
+        if (!mBitboard) {
+            System.arraycopy(other.mCells, 0, mCells, 0, mCells.length);
+        }
+        mHash = other.mHash;
+        mMirrorHash = other.mMirrorHash;
+        mMoveCount = other.mMoveCount;
+        for (int i = 0; i < mWidth; i++) {
+            mHeights[i] = other.mHeights[i];
+        }
+        mEvaluator.copyFrom(other.mEvaluator);
+    }
+
+    /**
+     * Gets the color at the given spot
+     * @param x column, goes from 0 - BOARD_WIDTH-1
+     * @param y row, goes from 0 - BOARD_HEIGHT-1
+     * @return the color of the ball there, or EMPTY
+     */
+    public Connect4Model.Color get(int x, int y) {
+        if (!mBitboard) {
+            byte cell = mCells[x * mHeight + y];
+            return cell == CELL_RED ? Connect4Model.Color.RED
+                    : cell == CELL_YELLOW ? Connect4Model.Color.YELLOW : Connect4Model.Color.EMPTY;
+        }
+        long b = bit(x, y);
+        if ((mRedMask & b) != 0) {
+            return Connect4Model.Color.RED;
+        }
+        if ((mYellowMask & b) != 0) {
+            return Connect4Model.Color.YELLOW;
+        }
+        return Connect4Model.Color.EMPTY;
+    }
+
+    /**
+     * Adds the ball to the next available space in the column
+     * @param col column number, goes from 0 - BOARD_WIDTH-1
+     * @param color color of the ball
+     * @return the row it was placed in, or -1 if the column is full
+     */
+    public int play(int col, Connect4Model.Color color) {
+        int row = mHeights[col];
+        if (row >= mHeight) {
+            return -1;
+        }
+        place(col, row, color);
+        mHeights[col] = row + 1;
+        mMoveCount++;
+        mEvaluator.add(col, row, color);
+        return row;
+    }
+
+    /**
+     * Removes the top ball of the column, undoing play(col, color)
+     * @param col column number, goes from 0 - BOARD_WIDTH-1
+     */
+    public void undo(int col) {
+        int row = --mHeights[col];
+        mMoveCount--;
+        if (!mBitboard) {
+            int cell = col * mHeight + row;
+            Connect4Model.Color color = mCells[cell] == CELL_RED ? Connect4Model.Color.RED : Connect4Model.Color.YELLOW;
+            mEvaluator.remove(col, row, color);
+            int colorIndex = color == Connect4Model.Color.RED ? 0 : 1;
+            mHash ^= mZobristKeys[cell * 2 + colorIndex];
+            mMirrorHash ^= mZobristKeys[((mWidth - 1 - col) * mHeight + row) * 2 + colorIndex];
+            mCells[cell] = CELL_EMPTY;
+            return;
+        }
+        long b = bit(col, row);
+        long mirror = bit(mWidth - 1 - col, row);
+        mEvaluator.remove(col, row, (mRedMask & b) != 0 ? Connect4Model.Color.RED : Connect4Model.Color.YELLOW);
+        mRedMask &= ~b;
+        mYellowMask &= ~b;
+        mMirrorRedMask &= ~mirror;
+        mMirrorYellowMask &= ~mirror;
+    }
+
+    /**
+     * Puts a ball in a spot, without updating the heights or the rating
+     * @param x column of the ball
+     * @param y row of the ball
+     * @param color color of the ball
+     */
+    private void place(int x, int y, Connect4Model.Color color) {
+        if (!mBitboard) {
+            int cell = x * mHeight + y;
+            int colorIndex = color == Connect4Model.Color.RED ? 0 : 1;
+            mCells[cell] = color == Connect4Model.Color.RED ? CELL_RED : CELL_YELLOW;
+            mHash ^= mZobristKeys[cell * 2 + colorIndex];
+            mMirrorHash ^= mZobristKeys[((mWidth - 1 - x) * mHeight + y) * 2 + colorIndex];
+        }
+        else if (color == Connect4Model.Color.RED) {
+            mRedMask |= bit(x, y);
+            mMirrorRedMask |= bit(mWidth - 1 - x, y);
+        }
+        else {
+            mYellowMask |= bit(x, y);
+            mMirrorYellowMask |= bit(mWidth - 1 - x, y);
+        }
+    }
+
+    /**
+     * Checks if there are four balls (or however many win) of the given color in a row anywhere on the board
+     * @param color color to check
+     * @return true if that color has won
+     */
+    public boolean hasFour(Connect4Model.Color color) {
+        return mEvaluator.hasFour(color);
+    }
+
+    /**
+     * Checks if playing in a column would win the game straight away
+     * @param col column number, goes from 0 - BOARD_WIDTH-1
+     * @param color color of the ball that would be played
+     * @return true if the column isn't full and a ball there makes four in a row
+     */
+    public boolean isWinningMove(int col, Connect4Model.Color color) {
+        int row = mHeights[col];
+        return row < mHeight && mEvaluator.isWinningSpot(col, row, color);
+    }
+
+    /**
+     * Finds every column where playing would win the game straight away
+     * @param color color of the ball that would be played
+     * @return a bit set for each such column, bit i for column i, so 0 if there are none
+     */
+    public int getWinningMoves(Connect4Model.Color color) {
+        int moves = 0;
+        if (mBitboardWins) {
+            long own = color == Connect4Model.Color.RED ? mRedMask : mYellowMask;
+            long mask = mRedMask | mYellowMask;
+            long spots = mRules.getWinningSpots(own, mask) & (mask + mBottomMask);
+            while (spots != 0) {
+                moves |= 1 << (Long.numberOfTrailingZeros(spots) / mColumnBits);
+                spots &= spots - 1;
+            }
+            return moves;
+        }
+        for (int i = 0; i < mWidth; i++) {
+            if (isWinningMove(i, color)) {
+                moves |= 1 << i;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Finds every column where playing would let the other player win straight away afterwards, either in the
+     * spot the ball lands on top of or anywhere else they could already win. On bitboards all the columns are
+     * worked out together with a few shifts of the masks, rather than by playing each column in turn.
+     * @param color color of the ball that would be played
+     * @return a bit set for each such column that isn't full, bit i for column i
+     */
+    public int getLosingMoves(Connect4Model.Color color) {
+        Connect4Model.Color other = color == Connect4Model.Color.RED ? Connect4Model.Color.YELLOW : Connect4Model.Color.RED;
+        int moves = 0;
+        if (mBitboardWins) {
+            long mask = mRedMask | mYellowMask;
+            long playable = (mask + mBottomMask) & mRules.getBoardMask();
+            long spots = mRules.getWinningSpots(other == Connect4Model.Color.RED ? mRedMask : mYellowMask, mask);
+            //A column lets the other player win if they can win right above it, or anywhere else they already could
+            long above = spots & (playable << 1);
+            long now = spots & playable;
+            for (long left = playable; left != 0; left &= left - 1) {
+                long spot = left & -left;
+                if ((above & (spot << 1)) != 0 || (now & ~spot) != 0) {
+                    moves |= 1 << (Long.numberOfTrailingZeros(spot) / mColumnBits);
+                }
+            }
+            return moves;
+        }
+        int wins = getWinningMoves(other);
+        for (int i = 0; i < mWidth; i++) {
+            int row = mHeights[i];
+            if (row < mHeight && ((wins & ~(1 << i)) != 0
+                    || (row + 1 < mHeight && mEvaluator.isWinningSpot(i, row + 1, other)))) {
+                moves |= 1 << i;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Gets the rating the position would have after playing a column, without playing it
+     * @param col column number, goes from 0 - BOARD_WIDTH-1, which shouldn't be full
+     * @param color color of the ball that would be played, and color to rate the position for
+     * @return the rating, as getScore(color) would give after play(col, color)
+     */
+    public int getScoreAfter(int col, Connect4Model.Color color) {
+        return mEvaluator.getScoreAfter(col, mHeights[col], color);
+    }
+
+    /**
+     * Gets the rating of the position, not counting fours in a row which are checked with hasFour
+     * @param color color to rate the position for
+     * @return the rating, positive if the position is good for color
+     */
+    public int getScore(Connect4Model.Color color) {
+        return mEvaluator.getScore(color);
+    }
+
+    /**
+     * Gets a key that is unique to this arrangement of balls. Adding the bottom row to the mask of all balls
+     * moves each column's top bit one spot above its highest ball, which leaves the spots below free for the RED balls.
+     * On boards too big for bitboards it is a Zobrist hash instead, which is very unlikely but not certain to be unique.
+     * @return the key, on bitboards it uses at most BOARD_WIDTH*(BOARD_HEIGHT+1) bits
+     */
+    public long getKey() {
+        if (!mBitboard) {
+            //The empty board isn't 0, as a key of 0 looks like an empty entry to the tables
+            return ~mHash;
+        }
+        return mRedMask + (mRedMask | mYellowMask) + mBottomMask;
+    }
+
+    /**
+     * @return the key of the position flipped left to right, made the same way as getKey
+     */
+    public long getMirrorKey() {
+        if (!mBitboard) {
+            return ~mMirrorHash;
+        }
+        return mMirrorRedMask + (mMirrorRedMask | mMirrorYellowMask) + mBottomMask;
+    }
+
+    /**
+     * Gets the key shared by this position and its mirror image, which is the lower of the two keys. Anything
+     * remembered about a position under this key holds for its mirror image too, with the columns flipped.
+     * @return the key
+     */
+    public long getCanonicalKey() {
+        return Math.min(getKey(), getMirrorKey());
+    }
+
+    /**
+     * @return true if getCanonicalKey is the key of the mirror image rather than of this position, so columns
+     * remembered under it have to be flipped with mirror(col)
+     */
+    public boolean isMirrored() {
+        return getMirrorKey() < getKey();
+    }
+
+    /**
+     * @return true if the position looks the same flipped left to right, so a move and its mirror are as good
+     */
+    public boolean isSymmetric() {
+        return getMirrorKey() == getKey();
+    }
+
+    /**
+     * @param col column number, goes from 0 - BOARD_WIDTH-1
+     * @return the column on the other side of the board the same distance from the edge
+     */
+    public int mirror(int col) {
+        return mWidth - 1 - col;
+    }
+
+    /**
+     * Gets the bitboard of a color's balls
+     * @param color color of the balls
+     * @return the mask with a bit set for every spot holding a ball of that color
+     * @throws IllegalStateException if the board is too big for bitboards
+     */
+    public long getMask(Connect4Model.Color color) {
+        if (!mBitboard) {
+            throw new IllegalStateException(mRules + " is too big for bitboards");
+        }
+        return color == Connect4Model.Color.RED ? mRedMask : mYellowMask;
+    }
+
+    public boolean canPlay(int col) {
+        return mHeights[col] < mHeight;
+    }
+
+    public int getHeight(int col) {
+        return mHeights[col];
+    }
+
+    public int getMoveCount() {
+        return mMoveCount;
+    }
+
+    public int countSpacesLeft() {
+        return mWidth * mHeight - mMoveCount;
+    }
+
+    private long bit(int x, int y) {
+        return 1L << (x * mColumnBits + y);
+    }
+}
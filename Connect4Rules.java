@@ -0,0 +1,269 @@
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The size of the board and how many balls in a row win, along with the tables the bot works out from them.
+ * STANDARD is the usual 7x6 board with four in a row, and get(width, height, movesToWin) gives any other.
+ * There is only one Connect4Rules for each size, so the tables are only worked out once however many bots
+ * and positions use them.
+ * Boards where every column fits in a 64 bit bitboard with a spare bit on top (width*(height+1) <= 64,
+ * which covers 7x6 and 8x7) are searched with bitboards, and bigger ones with Zobrist keys, see Connect4Position.
+ */
+public class Connect4Rules {
+
+    //Moves are stored in 4 bits in the table of searched positions, with 15 meaning no move
+    public static final int MAX_WIDTH = 15;
+
+    private static final Map<String, Connect4Rules> sRules = new ConcurrentHashMap<>();
+
+    //Horizontally, vertically, diagonally right, diagonally left
+    private static final int DIRECTIONS[][] = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    //Zobrist keys are made with a fixed seed so they are the same every run
+    private static final long ZOBRIST_SEED = 0x436F6E6E65637434L;
+
+    public static final Connect4Rules STANDARD = get(Connect4Model.BOARD_WIDTH, Connect4Model.BOARD_HEIGHT,
+            Connect4Model.MOVES_TO_WIN);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMovesToWin;
+    private final boolean mBitboard;
+    private final boolean mBitboardWins;
+    private final int mColumnBits;
+    //Every playable spot of the bitboard, or 0 if the board doesn't fit in one
+    private final long mBoardMask;
+
+    //Columns from the center out
+    private final int mCenterOrder[];
+    //Every possible line of mMovesToWin spots (the windows), as the spots x*height + y in it
+    private final int mWindows[][];
+    //Windows going through each spot, indexed by x*height + y
+    private final int mCellWindows[][];
+    //A random key for each spot and color, indexed by (x*height + y)*2, plus 1 for YELLOW, or null on bitboards
+    private final long mZobristKeys[];
+
+    /**
+     * Gets the rules for a size of board
+     * @param width number of columns
+     * @param height number of rows
+     * @param movesToWin how many balls in a row win
+     * @return the rules
+     * @throws IllegalArgumentException if the board is too big or small for the bot, or too small to win on
+     */
+    public static Connect4Rules get(int width, int height, int movesToWin) {
+        if (width < 1 || width > MAX_WIDTH || height < 1 || movesToWin < 2
+                || (movesToWin > width && movesToWin > height)) {
+            throw new IllegalArgumentException("Can't play " + movesToWin + " in a row on a " + width + "x" + height + " board");
+        }
+        return sRules.computeIfAbsent(width + "x" + height + "x" + movesToWin,
+                name -> new Connect4Rules(width, height, movesToWin));
+    }
+
+    private Connect4Rules(int width, int height, int movesToWin) {
+        mWidth = width;
+        mHeight = height;
+        mMovesToWin = movesToWin;
+        mBitboard = width * (height + 1) <= 64;
+        //Looking along a whole line with shifts mustn't go past the 64 bits
+        mBitboardWins = mBitboard && (movesToWin - 1) * (height + 2) < 64;
+        mColumnBits = height + 1;
+        long boardMask = 0;
+        if (mBitboard) {
+            for (int i = 0; i < width; i++) {
+                boardMask |= ((1L << height) - 1) << (i * mColumnBits);
+            }
+        }
+        mBoardMask = boardMask;
+
+        //Alternates sides going out from the center, on even widths the center is the left of the middle two
+        mCenterOrder = new int[width];
+        int center = (width - 1) / 2;
+        for (int i = 0; i < width; i++) {
+            int step = (i + 1) / 2;
+            mCenterOrder[i] = i % 2 == width % 2 ? center - step : center + step;
+        }
+
+        int spots = width * height;
+        int cellCounts[] = new int[spots];
+        int windows[][] = new int[spots * DIRECTIONS.length][];
+        int count = 0;
+        for (int d[] : DIRECTIONS) {
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    int endX = x + d[0] * (movesToWin - 1);
+                    int endY = y + d[1] * (movesToWin - 1);
+                    if (endX < 0 || endX >= width || endY < 0 || endY >= height) {
+                        continue;
+                    }
+                    int cells[] = new int[movesToWin];
+                    for (int i = 0; i < movesToWin; i++) {
+                        cells[i] = (x + d[0] * i) * height + (y + d[1] * i);
+                        cellCounts[cells[i]]++;
+                    }
+                    windows[count++] = cells;
+                }
+            }
+        }
+        mWindows = new int[count][];
+        System.arraycopy(windows, 0, mWindows, 0, count);
+
+        mCellWindows = new int[spots][];
+        for (int c = 0; c < spots; c++) {
+            mCellWindows[c] = new int[cellCounts[c]];
+            cellCounts[c] = 0;
+        }
+        for (int w = 0; w < count; w++) {
+            for (int c : mWindows[w]) {
+                mCellWindows[c][cellCounts[c]++] = w;
+            }
+        }
+
+        if (mBitboard) {
+            mZobristKeys = null;
+        }
+        else {
+            Random random = new Random(ZOBRIST_SEED);
+            mZobristKeys = new long[spots * 2];
+            for (int i = 0; i < mZobristKeys.length; i++) {
+                mZobristKeys[i] = random.nextLong();
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getMovesToWin() {
+        return mMovesToWin;
+    }
+
+    /**
+     * @return the number of spots on the board
+     */
+    public int getSpots() {
+        return mWidth * mHeight;
+    }
+
+    /**
+     * @return true if a position fits in 64 bit bitboards, with a spare bit on top of every column
+     */
+    public boolean isBitboard() {
+        return mBitboard;
+    }
+
+    /**
+     * @return true if getWinningSpots works on this board, which needs it to fit in bitboards and looking
+     * along a whole line of the balls needed to win never to shift past the 64 bits
+     */
+    public boolean hasBitboardWins() {
+        return mBitboardWins;
+    }
+
+    /**
+     * @return a bit set for every playable spot of a bitboard laid out like Connect4Position's, or 0 if the board
+     * doesn't fit in one
+     */
+    public long getBoardMask() {
+        return mBoardMask;
+    }
+
+    /**
+     * @return the columns from the center out, which is the order to try moves in when nothing else tells them
+     * apart. The array is shared, so don't change it.
+     */
+    public int[] getCenterOrder() {
+        return mCenterOrder;
+    }
+
+    public int getWindowCount() {
+        return mWindows.length;
+    }
+
+    /**
+     * @return the windows going through each spot, indexed by x*height + y. The array is shared, so don't change it.
+     */
+    public int[][] getCellWindows() {
+        return mCellWindows;
+    }
+
+    /**
+     * @return the random Zobrist key for each spot and color, indexed by (x*height + y)*2, plus 1 for YELLOW.
+     * Only boards too big for bitboards have them, otherwise it is null. The array is shared, so don't change it.
+     */
+    public long[] getZobristKeys() {
+        return mZobristKeys;
+    }
+
+    /**
+     * Gets the empty spots that would complete four in a row (or however many win) for a player, working on all
+     * the lines at once with shifts of a bitboard laid out like Connect4Position's. Only works if hasBitboardWins.
+     * @param position balls of the player
+     * @param mask all balls
+     * @return bits of the spots, including ones that can't be played yet as the spot below is empty
+     */
+    public long getWinningSpots(long position, long mask) {
+        if (mMovesToWin != 4) {
+            return winningPositionsInRow(position, mask);
+        }
+
+        //Vertical
+        long r = (position << 1) & (position << 2) & (position << 3);
+
+        //Horizontal and both diagonals, the spot can be at either end or in the middle of the line
+        for (int shift = mColumnBits - 1; shift <= mColumnBits + 1; shift++) {
+            long p = (position << shift) & (position << (2 * shift));
+            r |= p & (position << (3 * shift));
+            r |= p & (position >> shift);
+            p = (position >> shift) & (position >> (2 * shift));
+            r |= p & (position << shift);
+            r |= p & (position >> (3 * shift));
+        }
+
+        return r & (mBoardMask ^ mask);
+    }
+
+    /**
+     * Same as getWinningSpots for any number of balls in a row, by trying the empty spot at each place in the line
+     * @param position balls of the player
+     * @param mask all balls
+     * @return bits of the spots
+     */
+    private long winningPositionsInRow(long position, long mask) {
+        //Vertical, the spot can only be on top
+        long r = position << 1;
+        for (int i = 2; i < mMovesToWin; i++) {
+            r &= position << i;
+        }
+
+        //Horizontal and both diagonals, with the spot at place i of the line
+        for (int shift = mColumnBits - 1; shift <= mColumnBits + 1; shift++) {
+            for (int i = 0; i < mMovesToWin; i++) {
+                long p = -1;
+                for (int j = 0; j < mMovesToWin; j++) {
+                    int offset = (i - j) * shift;
+                    if (offset > 0) {
+                        p &= position << offset;
+                    }
+                    else if (offset < 0) {
+                        p &= position >>> -offset;
+                    }
+                }
+                r |= p;
+            }
+        }
+
+        return r & (mBoardMask ^ mask);
+    }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight + ", " + mMovesToWin + " in a row";
+    }
+}
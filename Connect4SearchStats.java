@@ -0,0 +1,45 @@
+/**
+ * What the bot did to find one move: how it found it, how deep it got and how much work that took.
+ * Get the one for the last move with Connect4Bot.getLastSearchStats().
+ */
+public class Connect4SearchStats {
+
+    /**
+     * Where the move came from
+     */
+    public enum Source {SEARCH, BOOK, SOLVER, PONDER, FORCED};
+
+    public Source source = Source.SEARCH;
+    public int move = -1;
+    //Deepest search that finished, in moves
+    public int depth;
+    //Positions searched, on every thread
+    public long nodes;
+    public long timeNanos;
+    //Time from the start of the move until each depth finished, indexed by depth
+    public long iterationNanos[] = new long[0];
+    public long cutoffs;
+    public long firstMoveCutoffs;
+    public long tableProbes;
+    public long tableHits;
+
+    public double getNodesPerSecond() {
+        return timeNanos > 0 ? nodes * 1e9 / timeNanos : 0;
+    }
+
+    public double getTableHitRate() {
+        return tableProbes > 0 ? tableHits / (double) tableProbes : 0;
+    }
+
+    public double getFirstMoveCutoffRate() {
+        return cutoffs > 0 ? firstMoveCutoffs / (double) cutoffs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("move %d from %s, depth %d, %d nodes in %.1f ms (%.0f nodes/s), "
+                        + "table hits %.1f%%, first move cut offs %.1f%%",
+                move + 1, source, depth, nodes, timeNanos / 1e6, getNodesPerSecond(),
+                getTableHitRate() * 100, getFirstMoveCutoffRate() * 100);
+    }
+}
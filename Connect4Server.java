@@ -0,0 +1,321 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+
+/**
+ * Plays many games against the bot at once over a socket on this computer, so players don't each need their own
+ * copy of the game. Run it with "java Connect4Server [port] [workers] [thinking time in ms] [max sessions]
+ * [width height in a row]", by default on port 4444 with one worker per processor, 1000 ms per move and 500 sessions.
+ * Every connection is a session with its own game, where the player is RED and the bot is YELLOW like in
+ * Connect4Main. The server starts by sending READY with the board's width, height and how many in a row win,
+ * then the client sends one command per line and gets one line back:
+ *   NEW            starts a new game with the player moving first, answers OK
+ *   NEW BOT        starts a new game with the bot moving first, answers BOT col state
+ *   MOVE col       plays the player's ball in the column (from 1 - the board's width) and answers with the bot's
+ *                  reply as BOT col state, or OVER state if the player's move ended the game
+ *   BOARD          answers BOARD rows, the rows from top to bottom separated by '/', with '-' for empty spots,
+ *                  'X' for RED and 'O' for YELLOW
+ *   THINK ms       sets the bot's thinking time for this session, up to the server's, answers OK ms
+ *   QUIT           answers BYE and closes the connection
+ * where state is PLAYING, PLAYER_WINS, BOT_WINS or DRAW. Anything wrong with a command answers ERROR and why.
+ * The bot's moves are worked out by a fixed number of worker threads, each with its own bot, so games share the
+ * processors fairly however many there are. Moves wait their turn in a queue, and when too many are waiting the
+ * server answers BUSY instead and leaves the game as it was, so the client can send the same command again a
+ * little later. A connection beyond the most sessions gets BUSY and is closed.
+ * The workers share one table of searched positions, and their totals can be watched over JMX under
+ * Connect4:type=BotStats,name="Server".
+ */
+public class Connect4Server {
+
+    private static final int DEFAULT_PORT = 4444;
+    private static final int DEFAULT_THINKING_TIME = 1000;
+    private static final int DEFAULT_MAX_SESSIONS = 500;
+
+    private static final int TABLE_SIZE_MB = 256;
+    //How many moves per worker can wait in the queue before the server answers BUSY
+    private static final int QUEUED_MOVES_PER_WORKER = 4;
+    //Sessions that send nothing for this long are closed, so abandoned connections don't use up sessions
+    private static final int IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final Connect4Rules mRules;
+    private final long mMaxThinkingTime;
+    private final int mMaxSessions;
+    private final AtomicInteger mSessions = new AtomicInteger();
+    private final ExecutorService mSessionPool;
+    private final ThreadPoolExecutor mWorkers;
+    private final ThreadLocal<Connect4Bot> mBots;
+
+    /**
+     * The game of one connection
+     */
+    private class Session implements Runnable {
+
+        private final Socket mSocket;
+        private Connect4Model mModel;
+        private long mThinkingTime = mMaxThinkingTime;
+
+        Session(Socket socket) {
+            mSocket = socket;
+            mModel = createModel();
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = mSocket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+                socket.setSoTimeout(IDLE_TIMEOUT_MS);
+                out.println("READY " + mRules.getWidth() + " " + mRules.getHeight() + " " + mRules.getMovesToWin());
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String parts[] = line.trim().split("\\s+");
+                    String command = parts[0].toUpperCase(Locale.ROOT);
+                    if (command.equals("QUIT")) {
+                        out.println("BYE");
+                        break;
+                    }
+                    out.println(handle(command, parts));
+                }
+            } catch (SocketTimeoutException e) {
+                //Idle for too long, the connection is closed
+            } catch (IOException e) {
+                //The client went away, so there's no one to tell
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mSessions.decrementAndGet();
+            }
+        }
+
+        /**
+         * Carries out one command
+         * @param command the command, in upper case
+         * @param parts the command and its arguments
+         * @return the line to answer with
+         */
+        private String handle(String command, String parts[]) throws InterruptedException {
+            switch (command) {
+                case "NEW":
+                    Connect4Model model = createModel();
+                    if (parts.length > 1 && parts[1].equalsIgnoreCase("BOT")) {
+                        model.nextPlayerTurn();
+                        //The new game only replaces the old one once the bot has made its first move
+                        String reply = botMove(model);
+                        if (reply != null) {
+                            mModel = model;
+                        }
+                        return reply != null ? reply : "BUSY";
+                    }
+                    mModel = model;
+                    return "OK";
+
+                case "MOVE":
+                    if (parts.length < 2) {
+                        return "ERROR MOVE needs a column";
+                    }
+                    if (mModel.hasWinner() || mModel.isBoardFull()) {
+                        return "ERROR the game is over, send NEW to start another";
+                    }
+                    if (mModel.getPlayerTurn() != Connect4Model.PLAYER_1) {
+                        return "ERROR it is the bot's turn";
+                    }
+                    int col;
+                    try {
+                        col = Integer.parseInt(parts[1]) - 1;
+                    } catch (NumberFormatException e) {
+                        return "ERROR " + parts[1] + " is not a column";
+                    }
+                    if (col < 0 || col >= mRules.getWidth()) {
+                        return "ERROR " + parts[1] + " is not a column";
+                    }
+                    if (mModel.play(col) == -1) {
+                        return "ERROR column " + parts[1] + " is full";
+                    }
+                    if (mModel.checkForWinner()) {
+                        return "OVER " + getState(mModel);
+                    }
+                    String reply = botMove(mModel);
+                    if (reply == null) {
+                        mModel.undo(); //Taken back so the player can send the same move again
+                        return "BUSY";
+                    }
+                    return reply;
+
+                case "BOARD":
+                    return "BOARD " + toText(mModel);
+
+                case "THINK":
+                    try {
+                        mThinkingTime = Math.max(1, Math.min(Long.parseLong(parts[1]), mMaxThinkingTime));
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        return "ERROR THINK needs a time in ms";
+                    }
+                    return "OK " + mThinkingTime;
+
+                default:
+                    return "ERROR unknown command " + parts[0];
+            }
+        }
+
+        /**
+         * Has a worker play the bot's move in a game where it is the bot's turn
+         * @param model the game
+         * @return the line to answer with, or null if too many moves are already waiting, when the game is unchanged
+         */
+        private String botMove(Connect4Model model) throws InterruptedException {
+            long thinkingTime = mThinkingTime;
+            Connect4Model.Color board[][] = model.getBoard();
+            Future<Integer> result;
+            try {
+                result = mWorkers.submit(() -> {
+                    Connect4Bot bot = mBots.get();
+                    bot.setThinkingTime(thinkingTime);
+                    return bot.getNextMove(board);
+                });
+            } catch (RejectedExecutionException e) {
+                return null;
+            }
+
+            int col;
+            try {
+                col = result.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("The bot failed to move", e.getCause());
+            }
+            model.play(col);
+            model.checkForWinner();
+            return "BOT " + (col + 1) + " " + getState(model);
+        }
+    }
+
+    /**
+     * @param rules size of the board and how many in a row win
+     * @param workers number of threads working out the bot's moves
+     * @param thinkingTime most time in ms the bot thinks for per move
+     * @param maxSessions most games that can be played at once
+     */
+    public Connect4Server(Connect4Rules rules, int workers, long thinkingTime, int maxSessions) {
+        mRules = rules;
+        mMaxThinkingTime = thinkingTime;
+        mMaxSessions = maxSessions;
+
+        Connect4TranspositionTable table = new Connect4TranspositionTable(TABLE_SIZE_MB);
+        Connect4BotStats stats = new Connect4BotStats();
+        try {
+            stats.register("Server");
+        } catch (JMException e) {
+            System.out.println("Couldn't make the stats visible over JMX: " + e.getMessage());
+        }
+        mBots = ThreadLocal.withInitial(() -> {
+            Connect4Bot bot = new Connect4Bot(rules, table);
+            //Each move gets one worker, so the processors are shared between games instead
+            bot.setThreadCount(1);
+            bot.setStats(stats);
+            return bot;
+        });
+        //Fails straight away once the queue is full, which is what answers BUSY
+        mWorkers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * QUEUED_MOVES_PER_WORKER), r -> {
+                    Thread thread = new Thread(r, "Connect4Server worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        //Sessions spend nearly all their time waiting for the player, so each gets its own thread
+        mSessionPool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Connect4Server session");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long thinkingTime = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_THINKING_TIME;
+        int maxSessions = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_SESSIONS;
+        Connect4Rules rules = args.length > 6
+                ? Connect4Rules.get(Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]))
+                : Connect4Rules.STANDARD;
+
+        new Connect4Server(rules, workers, thinkingTime, maxSessions).serve(port);
+    }
+
+    /**
+     * Accepts connections on this computer forever, starting a session for each
+     * @param port port to listen on
+     * @throws IOException if the port can't be listened on
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, mMaxSessions, InetAddress.getLoopbackAddress())) {
+            System.out.println("Playing " + mRules + " on port " + server.getLocalPort() + " with "
+                    + mWorkers.getCorePoolSize() + " workers");
+            while (true) {
+                Socket socket = server.accept();
+                if (mSessions.incrementAndGet() > mMaxSessions) {
+                    mSessions.decrementAndGet();
+                    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                            StandardCharsets.UTF_8), true)) {
+                        out.println("BUSY");
+                    } finally {
+                        socket.close();
+                    }
+                    continue;
+                }
+                mSessionPool.execute(new Session(socket));
+            }
+        }
+    }
+
+    private Connect4Model createModel() {
+        return new Connect4Model(mRules.getWidth(), mRules.getHeight(), mRules.getMovesToWin());
+    }
+
+    /**
+     * @param model the game
+     * @return PLAYING, PLAYER_WINS, BOT_WINS or DRAW
+     */
+    private static String getState(Connect4Model model) {
+        Connect4Model.WinningMove winningMove = model.getWinningMove();
+        if (winningMove != null) {
+            return winningMove.winner == Connect4Model.Color.RED ? "PLAYER_WINS" : "BOT_WINS";
+        }
+        return model.isBoardFull() ? "DRAW" : "PLAYING";
+    }
+
+    /**
+     * @param model the game
+     * @return the rows from top to bottom separated by '/', with '-' for empty spots, 'X' for RED and 'O' for YELLOW
+     */
+    private static String toText(Connect4Model model) {
+        Connect4Model.Color board[][] = model.getBoard();
+        StringBuilder text = new StringBuilder();
+        for (int j = model.getHeight() - 1; j >= 0; j--) {
+            for (int i = 0; i < model.getWidth(); i++) {
+                text.append(board[i][j] == Connect4Model.Color.RED ? 'X' : board[i][j] == Connect4Model.Color.YELLOW ? 'O' : '-');
+            }
+            if (j > 0) {
+                text.append('/');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Solves positions near the end of the game exactly, finding whether the player to move wins, draws or loses
+ * with perfect play, instead of rating the position with a heuristic like the bot's search does.
+ * Scores count how early the game is won: a win with the player's last ball scores 1, winning a move earlier
+ * scores 2 and so on, a loss is the negative of the winner's score and a draw is 0.
+ * The solver works on a bitboard laid out like Connect4Position, but holding the balls of the player to move
+ * and the mask of all balls, so playing a move is two operations. It narrows in on the exact score with
+ * null window searches (alpha-beta where beta = alpha+1), which only ask whether the score is above a guess.
+ * It only works on boards that fit in bitboards, see isSupported.
+ */
+public class Connect4Solver {
+
+    private static final int TIME_CHECK_MASK = 4095;
+
+    private final Connect4Rules mRules;
+    private final int mHeight;
+    private final int mSpots;
+    private final int mColumnBits;
+    private final long mBottomMask;
+    private final long mBoardMask;
+    //Scores stored in the table are upper bounds shifted so they are above 0
+    private final int mMinScore;
+    //Columns from the center out, as center moves are the most likely to be best
+    private final int mColumnOrder[];
+
+    private long mCurrent;
+    private long mMask;
+    private int mMoves;
+
+    private long mKeys[];
+    private byte mValues[];
+    private int mIndexMask;
+
+    //Scratch arrays to sort the moves at each depth
+    private long mSortedMoves[][];
+    private int mSortedScores[][];
+
+    private long mDeadline;
+    private long mNodes;
+    private boolean mAborted;
+    private int mLastScore;
+
+    /**
+     * @param tableSizeMb size in megabytes of the table of solved positions
+     */
+    public Connect4Solver(int tableSizeMb) {
+        this(Connect4Rules.STANDARD, tableSizeMb);
+    }
+
+    /**
+     * @param rules size of the board and how many in a row win
+     * @param tableSizeMb size in megabytes of the table of solved positions
+     * @throws IllegalArgumentException if the board isn't supported
+     */
+    public Connect4Solver(Connect4Rules rules, int tableSizeMb) {
+        if (!isSupported(rules)) {
+            throw new IllegalArgumentException("Can't solve " + rules);
+        }
+        mRules = rules;
+        mHeight = rules.getHeight();
+        mSpots = rules.getSpots();
+        mColumnBits = mHeight + 1;
+        long bottomMask = 0;
+        for (int i = 0; i < rules.getWidth(); i++) {
+            bottomMask |= bottom(i);
+        }
+        mBottomMask = bottomMask;
+        mBoardMask = mBottomMask * ((1L << mHeight) - 1);
+        mMinScore = -mSpots / 2 + 3;
+        mColumnOrder = rules.getCenterOrder();
+        mSortedMoves = new long[mSpots + 1][rules.getWidth()];
+        mSortedScores = new int[mSpots + 1][rules.getWidth()];
+
+        long entries = Math.max(2, (long) tableSizeMb * 1024 * 1024 / 9);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 28));
+        mKeys = new long[size];
+        mValues = new byte[size];
+        mIndexMask = size - 1;
+    }
+
+    /**
+     * Checks whether the solver works on a board, which it does if the board fits in bitboards and looking
+     * along a whole line of the balls needed to win never shifts past the 64 bits
+     * @param rules size of the board and how many in a row win
+     * @return true if it can be solved
+     */
+    public static boolean isSupported(Connect4Rules rules) {
+        return rules.hasBitboardWins();
+    }
+
+    /**
+     * Finds the move with the best exact score for the player to move
+     * @param position position to solve, it is left unchanged
+     * @param player player whose turn it is
+     * @param deadline System.nanoTime() to give up at
+     * @return the column of the best move, or -1 if there is no move or it ran out of time
+     */
+    public int getBestMove(Connect4Position position, Connect4Model.Color player, long deadline) {
+        Connect4Model.Color other = player == Connect4Model.Color.RED ? Connect4Model.Color.YELLOW : Connect4Model.Color.RED;
+        mMask = position.getMask(player) | position.getMask(other);
+        mCurrent = position.getMask(player);
+        mMoves = position.getMoveCount();
+        mDeadline = deadline;
+        mAborted = false;
+
+        int bestMove = -1;
+        int bestScore = Integer.MIN_VALUE;
+        long winning = mRules.getWinningSpots(mCurrent, mMask);
+        for (int col : mColumnOrder) {
+            long move = (mMask + bottom(col)) & column(col);
+            if (move == 0) {
+                continue; //Full
+            }
+
+            int score;
+            if ((move & winning) != 0) {
+                score = (mSpots + 1 - mMoves) / 2;
+            }
+            else {
+                long current = mCurrent, mask = mMask;
+                play(move);
+                score = -solve();
+                mCurrent = current;
+                mMask = mask;
+                mMoves--;
+                if (mAborted) {
+                    return -1;
+                }
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = col;
+            }
+        }
+        mLastScore = bestScore;
+        return bestMove;
+    }
+
+    /**
+     * @return the score of the move last returned by getBestMove
+     */
+    public int getLastScore() {
+        return mLastScore;
+    }
+
+    public long getNodes() {
+        return mNodes;
+    }
+
+    /**
+     * Solves the current position, narrowing the score down with null window searches
+     * @return the exact score for the player to move
+     */
+    private int solve() {
+        if ((mRules.getWinningSpots(mCurrent, mMask) & possible()) != 0) {
+            return (mSpots + 1 - mMoves) / 2;
+        }
+        int min = -(mSpots - mMoves) / 2;
+        int max = (mSpots + 1 - mMoves) / 2;
+        while (min < max && !mAborted) {
+            int med = min + (max - min) / 2;
+            //Guesses near 0 settle win, draw or loss first, which is quicker than going straight for the middle
+            if (med <= 0 && min / 2 < med) {
+                med = min / 2;
+            }
+            else if (med >= 0 && max / 2 > med) {
+                med = max / 2;
+            }
+            int r = negamax(med, med + 1);
+            if (r <= med) {
+                max = r;
+            }
+            else {
+                min = r;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Alpha-beta search of the current position, which the player to move can't win with their next ball
+     * @return the score if it is between alpha and beta, otherwise a bound on the score past alpha or beta
+     */
+    private int negamax(int alpha, int beta) {
+        if ((++mNodes & TIME_CHECK_MASK) == 0 && System.nanoTime() >= mDeadline) {
+            mAborted = true;
+        }
+        if (mAborted) {
+            return 0;
+        }
+
+        long next = possibleNonLosingMoves();
+        if (next == 0) {
+            return -(mSpots - mMoves) / 2; //Every move lets the other player win
+        }
+        if (mMoves >= mSpots - 2) {
+            return 0; //Neither player can win in the last two balls
+        }
+
+        int min = -(mSpots - 2 - mMoves) / 2;
+        if (alpha < min) {
+            alpha = min;
+            if (alpha >= beta) {
+                return alpha;
+            }
+        }
+        int max = (mSpots - 1 - mMoves) / 2;
+        long key = mCurrent + mMask;
+        int index = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mIndexMask;
+        if (mKeys[index] == key && mValues[index] != 0) {
+            max = mValues[index] + mMinScore - 1;
+        }
+        if (beta > max) {
+            beta = max;
+            if (alpha >= beta) {
+                return beta;
+            }
+        }
+
+        //Moves that leave the most ways to win are tried first
+        long moves[] = mSortedMoves[mMoves];
+        int scores[] = mSortedScores[mMoves];
+        int count = 0;
+        for (int col : mColumnOrder) {
+            long move = next & column(col);
+            if (move == 0) {
+                continue;
+            }
+            int score = Long.bitCount(mRules.getWinningSpots(mCurrent | move, mMask));
+            int i = count++;
+            while (i > 0 && scores[i - 1] < score) {
+                moves[i] = moves[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            moves[i] = move;
+            scores[i] = score;
+        }
+
+        long current = mCurrent, mask = mMask;
+        for (int i = 0; i < count; i++) {
+            play(moves[i]);
+            int score = -negamax(-beta, -alpha);
+            mCurrent = current;
+            mMask = mask;
+            mMoves--;
+            if (mAborted) {
+                return 0;
+            }
+            if (score >= beta) {
+                return score;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+        }
+
+        mKeys[index] = key;
+        mValues[index] = (byte) (alpha - mMinScore + 1);
+        return alpha;
+    }
+
+    /**
+     * Plays a move for the player to move, after which it is the other player's turn
+     * @param move bit of the spot to play
+     */
+    private void play(long move) {
+        mCurrent ^= mMask;
+        mMask |= move;
+        mMoves++;
+    }
+
+    /**
+     * @return bits of the spots a ball can be played in
+     */
+    private long possible() {
+        return (mMask + mBottomMask) & mBoardMask;
+    }
+
+    /**
+     * Gets the moves that don't let the other player win straight away. If the other player is threatening
+     * to win in one spot, that is the only move, and if they are threatening two there are none.
+     * @return bits of the spots to play in
+     */
+    private long possibleNonLosingMoves() {
+        long possible = possible();
+        long opponentWins = mRules.getWinningSpots(mCurrent ^ mMask, mMask);
+        long forced = possible & opponentWins;
+        if (forced != 0) {
+            if ((forced & (forced - 1)) != 0) {
+                return 0;
+            }
+            possible = forced;
+        }
+        //Don't play right under a spot the other player wins at
+        return possible & ~(opponentWins >> 1);
+    }
+
+    private long bottom(int col) {
+        return 1L << (col * mColumnBits);
+    }
+
+    private long column(int col) {
+        return ((1L << mHeight) - 1) << (col * mColumnBits);
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays bots against each other without a display, many games at once, to find out whether a change to the
+ * bot made it stronger. Each opening is a few random moves (never the same opening twice) and is played twice
+ * with the bots swapping colors, so neither bot gets the better openings.
+ * Run it with "java Connect4Tournament [games] [bot A] [bot B] [games at once] [random opening moves]
+ * [width height in a row]".
+ * A bot is given as its thinking time in ms, optionally followed by /depth for the most moves deep it searches,
+ * for example 100 or 1000/8, and then by /alpha_beta or /mtdf for how each depth is searched, for example
+ * 1000/0/mtdf (a depth of 0 doesn't limit it). A bot given as mcts/ms, optionally followed by /playouts for the most
+ * games it plays out per move, is a Connect4MCTSBot instead, for example mcts/100 or mcts/1000/20000. By default it plays 100 games of 100 ms against 50 ms, one game per processor,
+ * with 4 opening moves on the standard board. At the end it prints bot A's wins, draws and losses, the Elo difference with its 95%
+ * confidence interval and how many games were played per second.
+ */
+public class Connect4Tournament {
+
+    private static final int DEFAULT_GAMES = 100;
+    private static final String DEFAULT_BOT_A = "100";
+    private static final String DEFAULT_BOT_B = "50";
+    private static final int DEFAULT_OPENING_MOVES = 4;
+    //Start of the description of a Connect4MCTSBot
+    private static final String MCTS_BOT = "mcts";
+
+    private static final int TABLE_SIZE_MB = 16;
+    //How many times to try for an opening that hasn't been played before giving up on it being new
+    private static final int OPENING_TRIES = 1000;
+
+    private static final AtomicInteger sWins = new AtomicInteger();
+    private static final AtomicInteger sDraws = new AtomicInteger();
+    private static final AtomicInteger sLosses = new AtomicInteger();
+
+    /**
+     * The two bots playing on one thread
+     */
+    private static class Players {
+        Connect4Engine botA;
+        Connect4Engine botB;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        String botA = args.length > 1 ? args[1] : DEFAULT_BOT_A;
+        String botB = args.length > 2 ? args[2] : DEFAULT_BOT_B;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int openingMoves = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_OPENING_MOVES;
+        Connect4Rules rules = args.length > 7
+                ? Connect4Rules.get(Integer.parseInt(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]))
+                : Connect4Rules.STANDARD;
+
+        //Made once here so a bad description is reported before any games start
+        try {
+            createBot(rules, botA);
+            createBot(rules, botB);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        ThreadLocal<Players> players = ThreadLocal.withInitial(() -> {
+            Players p = new Players();
+            p.botA = createBot(rules, botA);
+            p.botB = createBot(rules, botB);
+            return p;
+        });
+
+        System.out.println("Playing " + games + " games of " + botA + " against " + botB + " on a " + rules
+                + " board, " + threads + " at a time");
+
+        Random random = new Random();
+        Set<String> openings = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < games; i += 2) {
+            int opening[] = createOpening(rules, random, openingMoves, openings);
+            results.add(pool.submit(() -> playGame(rules, players.get(), opening, true)));
+            if (i + 1 < games) {
+                results.add(pool.submit(() -> playGame(rules, players.get(), opening, false)));
+            }
+        }
+        pool.shutdown();
+        //A game that threw would otherwise just be missing from the totals
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A game failed", e.getCause());
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        printResults(sWins.get(), sDraws.get(), sLosses.get(), seconds);
+    }
+
+    /**
+     * Creates a bot from its description
+     * @param rules board the bot plays on
+     * @param description thinking time in ms, optionally followed by /depth and /driver, or mcts/thinking time
+     *                    optionally followed by /playouts
+     * @return the bot
+     * @throws IllegalArgumentException if the description can't be read
+     */
+    private static Connect4Engine createBot(Connect4Rules rules, String description) {
+        String parts[] = description.split("/");
+        if (parts[0].equalsIgnoreCase(MCTS_BOT)) {
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("A Connect4MCTSBot is given as mcts/ms, optionally followed by "
+                        + "/playouts, for example mcts/100, not " + description);
+            }
+            Connect4MCTSBot bot = new Connect4MCTSBot(rules);
+            //Each game gets its own bots with one thread, so games use the processors instead
+            bot.setThreadCount(1);
+            bot.setThinkingTime(Long.parseLong(parts[1]));
+            if (parts.length > 2) {
+                bot.setMaxPlayouts(Long.parseLong(parts[2]));
+            }
+            return bot;
+        }
+        Connect4Bot bot = new Connect4Bot(rules, TABLE_SIZE_MB);
+        bot.setThreadCount(1);
+        bot.setThinkingTime(Long.parseLong(parts[0]));
+        if (parts.length > 1) {
+            bot.setMaxDepth(Integer.parseInt(parts[1]));
+        }
+        if (parts.length > 2) {
+            bot.setDriver(Connect4Bot.Driver.valueOf(parts[2].toUpperCase()));
+        }
+        return bot;
+    }
+
+    /**
+     * Picks random opening moves that don't end the game and haven't been picked before
+     * @param rules board the game is played on
+     * @param random random number generator
+     * @param moves number of moves in the opening
+     * @param openings openings picked so far, the new one is added
+     * @return the columns of the opening moves
+     */
+    private static int[] createOpening(Connect4Rules rules, Random random, int moves, Set<String> openings) {
+        int opening[] = new int[moves];
+        Connect4Model model = createModel(rules);
+        for (int tries = 0; tries < OPENING_TRIES; tries++) {
+            while (model.undo() != -1) {
+                //Back to an empty board
+            }
+            StringBuilder name = new StringBuilder();
+            boolean over = false;
+            for (int i = 0; i < moves && !over; i++) {
+                int col;
+                do {
+                    col = random.nextInt(rules.getWidth());
+                } while (!model.canPlay(col));
+                model.play(col);
+                over = model.checkForWinner();
+                opening[i] = col;
+                name.append(col + 1).append(' ');
+            }
+            if (!over && openings.add(name.toString())) {
+                return opening;
+            }
+        }
+        return opening; //Every opening of this length has probably been played already
+    }
+
+    /**
+     * Plays one game and adds its result to the totals
+     * @param rules board the game is played on
+     * @param players bots to play with
+     * @param opening columns of the opening moves
+     * @param botAFirst true if bot A plays RED and moves first after the opening's RED moves
+     */
+    private static void playGame(Connect4Rules rules, Players players, int opening[], boolean botAFirst) {
+        Connect4Model model = createModel(rules);
+        for (int col : opening) {
+            model.play(col);
+        }
+
+        Connect4Engine red = botAFirst ? players.botA : players.botB;
+        Connect4Engine yellow = botAFirst ? players.botB : players.botA;
+        red.setColor(Connect4Model.Color.RED);
+        yellow.setColor(Connect4Model.Color.YELLOW);
+
+        while (!model.hasWinner()) {
+            Connect4Engine bot = model.getPlayerTurn() == Connect4Model.PLAYER_1 ? red : yellow;
+            model.play(bot.getNextMove(model.getBoard()));
+            model.checkForWinner();
+        }
+
+        Connect4Model.WinningMove winningMove = model.getWinningMove();
+        if (winningMove == null) {
+            sDraws.incrementAndGet();
+        }
+        else if ((winningMove.winner == Connect4Model.Color.RED) == botAFirst) {
+            sWins.incrementAndGet();
+        }
+        else {
+            sLosses.incrementAndGet();
+        }
+    }
+
+    private static Connect4Model createModel(Connect4Rules rules) {
+        return new Connect4Model(rules.getWidth(), rules.getHeight(), rules.getMovesToWin());
+    }
+
+    /**
+     * Prints the results of the tournament for bot A
+     * @param wins games bot A won
+     * @param draws games drawn
+     * @param losses games bot A lost
+     * @param seconds time the tournament took
+     */
+    private static void printResults(int wins, int draws, int losses, double seconds) {
+        int games = wins + draws + losses;
+        double score = (wins + draws / 2.0) / games;
+        //Standard error of the mean score per game, from how far each result is from the mean
+        double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+                + losses * Math.pow(score, 2)) / games;
+        double error = 1.96 * Math.sqrt(variance / games);
+
+        double elo = toElo(score);
+        double low = toElo(score - error);
+        double high = toElo(score + error);
+
+        System.out.println(String.format("Bot A: %d wins, %d draws, %d losses (%.1f%%)", wins, draws, losses, score * 100));
+        System.out.println(String.format("Elo difference: %.1f (95%% between %.1f and %.1f)", elo, low, high));
+        System.out.println(String.format("%d games in %.1f s, %.2f games/s", games, seconds, games / seconds));
+    }
+
+    /**
+     * Converts a score into an Elo rating difference
+     * @param score fraction of points won, from 0 - 1
+     * @return the Elo difference, capped where the score is all wins or all losses
+     */
+    private static double toElo(double score) {
+        score = Math.min(Math.max(score, 0.001), 0.999);
+        return -400 * Math.log10(1 / score - 1);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * A fixed size table remembering the results of positions the bot has already searched, so a position
+ * reached again through a different order of moves doesn't have to be searched again.
+ * Entries are kept in two flat long arrays, one with the keys and one with the packed data, so the table
+ * creates no garbage however big it is. When two positions land on the same entry the one searched
+ * deeper is kept, unless the stored one is left over from an earlier search.
+ * The table can be shared by several searching threads without locking: the key is stored xor'ed with
+ * the data, so an entry half written by another thread just doesn't match any key.
+ */
+public class Connect4TranspositionTable {
+
+    //Whether the stored score is the exact rating, or only a lower or upper bound of it
+    public static final int BOUND_EXACT = 0;
+    public static final int BOUND_LOWER = 1;
+    public static final int BOUND_UPPER = 2;
+
+    public static final int NO_MOVE = 15;
+
+    private static final int ENTRY_BYTES = 16;
+
+    //Layout of the packed data
+    private static final int DEPTH_SHIFT = 32;
+    private static final int BOUND_SHIFT = 40;
+    private static final int MOVE_SHIFT = 42;
+    private static final int GENERATION_SHIFT = 48;
+    private static final long VALID = 1L << 63;
+
+    private long mKeys[];
+    private long mData[];
+    private int mIndexBits;
+    private volatile int mGeneration;
+
+    /**
+     * @param sizeMb size of the table in megabytes, rounded down to a power of two number of entries
+     */
+    public Connect4TranspositionTable(int sizeMb) {
+        long entries = Math.max(1, (long) sizeMb * 1024 * 1024 / ENTRY_BYTES);
+        mIndexBits = 63 - Long.numberOfLeadingZeros(entries);
+        mIndexBits = Math.max(1, Math.min(mIndexBits, 30));
+        mKeys = new long[1 << mIndexBits];
+        mData = new long[1 << mIndexBits];
+    }
+
+    /**
+     * Looks up a position
+     * @param key key of the position
+     * @return the packed data stored for it, to be read with getScore, getDepth, getBound and getMove,
+     * or 0 if the position isn't in the table
+     */
+    public long probe(long key) {
+        int i = index(key);
+        long data = mData[i];
+        if (data != 0 && (mKeys[i] ^ data) == key) {
+            return data;
+        }
+        return 0;
+    }
+
+    /**
+     * Stores the result of searching a position
+     * @param key key of the position
+     * @param score rating found for the position
+     * @param depth how many moves deep the position was searched
+     * @param bound BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+     * @param move best move found, or NO_MOVE
+     */
+    public void store(long key, int score, int depth, int bound, int move) {
+        int i = index(key);
+        long old = mData[i];
+        if (old != 0 && (mKeys[i] ^ old) != key && generation(old) == mGeneration && getDepth(old) > depth) {
+            return;
+        }
+        long data = pack(score, depth, bound, move, mGeneration);
+        mKeys[i] = key ^ data;
+        mData[i] = data;
+    }
+
+    /**
+     * Marks the start of a new search so entries from earlier searches get replaced first
+     */
+    public void newSearch() {
+        mGeneration = (mGeneration + 1) & 0xFF;
+    }
+
+    /**
+     * Empties the table
+     */
+    public void clear() {
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = 0;
+            mData[i] = 0;
+        }
+    }
+
+    public int getSize() {
+        return mKeys.length;
+    }
+
+    /**
+     * Packs the result of searching a position into one long, as stored in the table
+     * @param score rating found for the position
+     * @param depth how many moves deep the position was searched
+     * @param bound BOUND_EXACT, BOUND_LOWER or BOUND_UPPER
+     * @param move best move found, or NO_MOVE
+     * @param generation search the result is from
+     * @return the packed data, never 0
+     */
+    public static long pack(int score, int depth, int bound, int move, int generation) {
+        return VALID
+                | ((long) generation << GENERATION_SHIFT)
+                | ((long) move << MOVE_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) depth << DEPTH_SHIFT)
+                | (score & 0xFFFFFFFFL);
+    }
+
+    public static int getScore(long data) {
+        return (int) data;
+    }
+
+    public static int getDepth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    public static int getBound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 0x3;
+    }
+
+    public static int getMove(long data) {
+        return (int) (data >>> MOVE_SHIFT) & 0xF;
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - mIndexBits));
+    }
+}